@@ -0,0 +1,106 @@
+package de.locked.feedly;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Training, reducing and scoring a single tag classifier the way App.test does:
+// the class of a doc is its first tag, every other doc is a negative.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BayesBenchmark {
+
+    static final String TAG = EntryGenerator.TAGS[0];
+    static final BayesCfg CFG = new BayesCfg(1, 0.94, 0.03);
+
+    @State(Scope.Benchmark)
+    public static class Docs {
+
+        @Param({"1000", "10000"})
+        int docs;
+
+        Corpus corpus;
+        String[] labels;
+        List<Doc> unread;
+
+        @Setup
+        public void setup() {
+            corpus = Corpus.load(new EntryGenerator(42).entries(docs).stream());
+            labels = new String[corpus.size()];
+            for (int i = 0; i < labels.length; i++) {
+                Doc d = corpus.getDocs().get(i);
+                labels[i] = d.untagged() ? "untagged" : d.tags[0];
+            }
+            unread = corpus.docs().filter(d -> d.unread).collect(Collectors.toList());
+        }
+
+        Bayes train() {
+            Bayes bayes = new Bayes(TAG, corpus.getVocabulary());
+            List<Doc> all = corpus.getDocs();
+            for (int i = 0; i < labels.length; i++) {
+                bayes.add(labels[i], all.get(i).tokens);
+            }
+            return bayes;
+        }
+    }
+
+    // reduce changes the counts, so every call gets a freshly trained model
+    @State(Scope.Thread)
+    public static class Trained {
+
+        Bayes bayes;
+
+        @Setup(Level.Invocation)
+        public void setup(Docs docs) {
+            bayes = docs.train();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Reduced {
+
+        Bayes bayes;
+
+        @Setup
+        public void setup(Docs docs) {
+            bayes = docs.train();
+            bayes.reduce(CFG);
+        }
+    }
+
+    @Benchmark
+    public Bayes add(Docs docs) {
+        return docs.train();
+    }
+
+    @Benchmark
+    public Bayes reduce(Trained trained) {
+        trained.bayes.reduce(CFG);
+        return trained.bayes;
+    }
+
+    // all unread docs
+    @Benchmark
+    public double docIsA(Docs docs, Reduced reduced) {
+        double sum = 0;
+        for (Doc d : docs.unread) {
+            sum += reduced.bayes.docIsA(d.tokens);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,63 @@
+package de.locked.feedly;
+
+import de.locked.feedly.feedly.Entry;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One recommendation run without Feedly and without the stores: tokenize all
+// entries, train every tag, then reduce and score the unread untagged docs
+// per tag like App.processTags.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ProcessTagBenchmark {
+
+    @Param({"1000", "10000"})
+    int docs;
+
+    private List<Entry> entries;
+
+    @Setup
+    public void setup() {
+        entries = new EntryGenerator(42).entries(docs);
+    }
+
+    @Benchmark
+    public int processTags() {
+        Corpus corpus = Corpus.load(entries.stream());
+        MultiBayes bayes = new MultiBayes(Arrays.asList(EntryGenerator.TAGS), corpus.getVocabulary());
+        bayes.train(corpus);
+
+        List<int[]> candidates = corpus.docs()
+                .filter(d -> d.unread)
+                .filter(d -> d.untagged())
+                .map(d -> bayes.distinct(d.tokens))
+                .collect(Collectors.toList());
+        int decisions = 0;
+        for (int t = 0; t < bayes.size(); t++) {
+            bayes.reduce(t, BayesBenchmark.CFG);
+            for (int[] distinct : candidates) {
+                if (bayes.docIsA(t, distinct) >= 0.9) {
+                    decisions++;
+                }
+            }
+        }
+        return decisions;
+    }
+}
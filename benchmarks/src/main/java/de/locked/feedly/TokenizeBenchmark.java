@@ -0,0 +1,83 @@
+package de.locked.feedly;
+
+import com.google.gson.Gson;
+import de.locked.feedly.feedly.Entry;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Per entry costs of reading and tokenizing, cycling through the corpus.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TokenizeBenchmark {
+
+    @Param({"1000"})
+    int docs;
+
+    private Entry[] entries;
+    private File dir;
+    private File[] files;
+    private final Tokenizer tokenizer = new Tokenizer();
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        List<Entry> list = new EntryGenerator(42).entries(docs);
+        entries = list.toArray(new Entry[list.size()]);
+        dir = Files.createTempDirectory("feedly-bench").toFile();
+        files = new File[docs];
+        Gson gson = new Gson();
+        for (int i = 0; i < docs; i++) {
+            files[i] = new File(dir, i + ".txt");
+            Files.write(files[i].toPath(), gson.toJson(entries[i]).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File f : files) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private int next() {
+        next = next + 1 == docs ? 0 : next + 1;
+        return next;
+    }
+
+    @Benchmark
+    public Entry fromFile() throws IOException {
+        return Utils.fromFile(files[next()]);
+    }
+
+    @Benchmark
+    public List<String> getAllContent() {
+        return Utils.getAllContent(entries[next()]);
+    }
+
+    @Benchmark
+    public void tokenize(Blackhole bh) {
+        tokenizer.tokenize(entries[next()], bh::consume);
+    }
+}
@@ -0,0 +1,226 @@
+package de.locked.feedly;
+
+import com.google.gson.Gson;
+import de.locked.feedly.feedly.Tag;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+// Collects tag and mark-as-read decisions and writes them back in bulk:
+// one request per tag and batch instead of one per entry.
+// With a file, what a flush could not send (e.g. the daily request budget is used up)
+// is kept there and sent first by the next flush, also of a later run.
+// A batch that Feedly refuses (an answer other than 200) is kept as well and sent again
+// by the next flushes; an action refused -Dfeedly.actionAttempts times is given up.
+class ActionBuffer {
+
+    private static final Logger log = LogManager.getLogger(ActionBuffer.class);
+    private static final Gson gson = new Gson();
+    static final int BATCH_SIZE = Integer.getInteger("feedly.batchSize", 100);
+    static final String FILE = System.getProperty("feedly.pendingActions", "pending-actions.json");
+    private static final int ATTEMPTS = Integer.getInteger("feedly.actionAttempts", 3);
+
+    // what is left to send, persisted
+    private static class Pending {
+
+        Map<String, Tag> tags;
+        Map<String, Set<String>> toTag;
+        Set<String> toRead;
+        Map<String, String> notes;
+        Map<String, Integer> refused;
+    }
+
+    private final Feedly feedly;
+    private final int batchSize;
+    private final File file; // null: nothing is kept
+    private final Map<String, Tag> tags = new HashMap<>();
+    private final Map<String, Set<String>> toTag = new LinkedHashMap<>(); // tag id -> entry ids
+    private final Set<String> toRead = new LinkedHashSet<>();
+    private final Map<String, String> notes = new LinkedHashMap<>(); // tag id + entry id -> log line
+    private final Map<String, Integer> refused = new HashMap<>(); // tag id + entry id or entry id -> attempts
+
+    // per entry results of the last flush
+    private final Set<String> tagged = new HashSet<>();
+    private final Set<String> read = new HashSet<>();
+
+    ActionBuffer(Feedly feedly) {
+        this(feedly, BATCH_SIZE);
+    }
+
+    ActionBuffer(Feedly feedly, int batchSize) {
+        this(feedly, batchSize, null);
+    }
+
+    // starts with the actions left in the file
+    ActionBuffer(Feedly feedly, File file) {
+        this(feedly, BATCH_SIZE, file);
+    }
+
+    ActionBuffer(Feedly feedly, int batchSize, File file) {
+        this.feedly = feedly;
+        this.batchSize = batchSize;
+        this.file = file;
+        if (file != null && file.exists()) {
+            try {
+                Pending p = gson.fromJson(new String(Files.readAllBytes(file.toPath())), Pending.class);
+                if (p != null && p.toTag != null && p.toRead != null) {
+                    tags.putAll(p.tags);
+                    for (Map.Entry<String, Set<String>> e : p.toTag.entrySet()) {
+                        toTag.put(e.getKey(), new LinkedHashSet<>(e.getValue()));
+                    }
+                    toRead.addAll(p.toRead);
+                    notes.putAll(p.notes);
+                    if (p.refused != null) {
+                        refused.putAll(p.refused);
+                    }
+                    log.info(size() + " actions left by the last run");
+                }
+            } catch (IOException | RuntimeException ex) {
+                log.warn("ignoring unreadable pending actions " + file, ex);
+            }
+        }
+    }
+
+    synchronized void tag(String entryId, Tag tag, String note) {
+        tags.put(tag.id, tag);
+        toTag.computeIfAbsent(tag.id, k -> new LinkedHashSet<>()).add(entryId);
+        notes.put(tag.id + entryId, note);
+    }
+
+    synchronized void markAsRead(String entryId) {
+        toRead.add(entryId);
+    }
+
+    synchronized int size() {
+        return notes.size() + toRead.size();
+    }
+
+    // Sends everything and logs the outcome per entry. A refused batch stays in the buffer
+    // until it ran out of attempts. The first failed request stops the flush, the rest
+    // stays in the buffer and in the file. A failure other than RequestScheduler.Deferred
+    // is thrown after that.
+    synchronized void flush() throws IOException {
+        IOException failed = null;
+        Map<String, Set<String>> sentTags = new LinkedHashMap<>(); // done: sent or given up
+        Set<String> sentRead = new HashSet<>();
+        try {
+            for (Map.Entry<String, Set<String>> e : toTag.entrySet()) {
+                Tag tag = tags.get(e.getKey());
+                for (List<String> batch : batches(e.getValue())) {
+                    boolean sent = feedly.tagEntries(batch, tag);
+                    if (!sent) {
+                        log.warn("Feedly refused to tag " + batch.size() + " entries with " + tag.label);
+                    }
+                    for (String id : batch) {
+                        if (sent) {
+                            tagged.add(tag.id + id);
+                        }
+                        if (sent || givenUp(tag.id + id)) {
+                            sentTags.computeIfAbsent(tag.id, k -> new LinkedHashSet<>()).add(id);
+                        }
+                    }
+                }
+            }
+            for (List<String> batch : batches(toRead)) {
+                boolean sent = feedly.markAsread(batch);
+                if (!sent) {
+                    log.warn("Feedly refused to mark " + batch.size() + " entries as read");
+                }
+                for (String id : batch) {
+                    if (sent) {
+                        read.add(id);
+                    }
+                    if (sent || givenUp(id)) {
+                        sentRead.add(id);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            failed = ex;
+        }
+        for (Map.Entry<String, Set<String>> e : sentTags.entrySet()) {
+            for (String id : e.getValue()) {
+                String key = e.getKey() + id;
+                log.info(String.format("%s tagged: %b, markRead: %b",
+                        notes.remove(key), tagged.contains(key), read.contains(id)));
+                refused.remove(key);
+            }
+            toTag.get(e.getKey()).removeAll(e.getValue());
+        }
+        toTag.values().removeIf(Set::isEmpty);
+        tags.keySet().retainAll(toTag.keySet());
+        toRead.removeAll(sentRead);
+        refused.keySet().removeAll(sentRead);
+        if (failed != null) {
+            log.warn(size() + " actions are left for the next flush: " + failed.getMessage());
+        }
+        save();
+        if (failed != null && !(failed instanceof RequestScheduler.Deferred)) {
+            throw failed;
+        }
+    }
+
+    // counts a refused attempt of the action, true if it is not tried again
+    private boolean givenUp(String key) {
+        int attempts = refused.merge(key, 1, Integer::sum);
+        if (attempts < ATTEMPTS) {
+            return false;
+        }
+        log.warn("giving up " + key + " after " + attempts + " refused attempts");
+        return true;
+    }
+
+    private void save() throws IOException {
+        if (file == null) {
+            return;
+        }
+        if (toTag.isEmpty() && toRead.isEmpty()) {
+            Files.deleteIfExists(file.toPath());
+            return;
+        }
+        Pending p = new Pending();
+        p.tags = tags;
+        p.toTag = toTag;
+        p.toRead = toRead;
+        p.notes = notes;
+        p.refused = refused;
+        File tmp = new File(file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), gson.toJson(p).getBytes());
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    boolean isTagged(String entryId, Tag tag) {
+        return tagged.contains(tag.id + entryId);
+    }
+
+    boolean isRead(String entryId) {
+        return read.contains(entryId);
+    }
+
+    private List<List<String>> batches(Set<String> ids) {
+        List<List<String>> batches = new ArrayList<>();
+        List<String> batch = new ArrayList<>(batchSize);
+        for (String id : ids) {
+            batch.add(id);
+            if (batch.size() == batchSize) {
+                batches.add(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+}
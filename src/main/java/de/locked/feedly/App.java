@@ -1,28 +1,30 @@
 package de.locked.feedly;
 
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Multimap;
-import com.google.gson.Gson;
-import de.locked.feedly.feedly.Category;
 import de.locked.feedly.feedly.Entry;
-import de.locked.feedly.feedly.StreamContent;
+import de.locked.feedly.feedly.ReadMarkers;
 import de.locked.feedly.feedly.Tag;
+import de.locked.feedly.feedly.TagMarkers;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.file.Files;
-import static java.nio.file.StandardOpenOption.*;
-import java.security.NoSuchAlgorithmException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.DoubleSummaryStatistics;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
@@ -30,33 +32,87 @@ import org.apache.log4j.PropertyConfigurator;
 public class App {
 
     private static final Logger log = LogManager.getLogger(App.class);
-    private static final boolean useDB = false;
     private static String token;
+    private static EntryStore store;
+    private static SyncState syncState;
     private static final double autoTagThreshold = 0.9;
+    private static final long TAG_CHECK_INTERVAL = Long.getLong("feedly.tagCheckHours", 24) * 3600 * 1000;
+    private static final int THREADS = Integer.getInteger("feedly.threads", Runtime.getRuntime().availableProcessors());
 
     // params evaluated through test()
     private static final BayesCfg BAYES_CFG = new BayesCfg(1, 0.94, 0.03);
 
+    // warm state of daemon mode, kept between cycles
+    private static ModelStore warmModels;
+    private static Corpus warmCorpus;
+    private static MultiBayes warmBayes;
+
     public static void main(String[] args) throws Exception {
         PropertyConfigurator.configure(App.class.getClassLoader().getResourceAsStream("logging.properties"));
+        // opened after the log configuration, they log what they find
+        store = new EntryStore(new File("data"));
+        syncState = SyncState.load(new File("sync.json"));
         // get the API token from https://feedly.com/v3/auth/dev
         token = args[0];
 
-        delData();
-        getData();
-        boolean auto = args.length > 1 && args[1].equals("auto");
-        recommendTag(auto);
-//        test();
+        List<String> opts = Arrays.asList(args).subList(1, args.length);
+        if (opts.contains("verify")) { // compare the tokenizer with jsoup on the stored entries
+            Tokenizer.verify(store.entries());
+            return;
+        }
+        if (opts.contains("record")) { // fixtures for FeedlyStandIn
+            record(new File(Fixtures.DIR));
+            return;
+        }
+        if (opts.contains("full")) {
+            delData();
+        }
+        if (opts.contains("daemon")) {
+            daemon(opts.contains("auto"));
+            return;
+        }
+        if (opts.contains("test")) { // cross validation of BAYES_CFG candidates on the stored entries
+            test();
+            return;
+        }
+        if (opts.contains("review")) { // goes through the suggestions queued by a run without auto
+            review();
+            return;
+        }
+        if (opts.contains("tune")) { // successive halving over BayesCfg candidates, see Tuner
+            tune();
+            return;
+        }
+        if (opts.contains("score")) { // scores the stored entries with the last snapshot, no sync, no training
+            score();
+            return;
+        }
+        final long a = System.nanoTime();
+        try {
+            getData();
+            boolean auto = opts.contains("auto");
+            recommendTag(auto);
+        } catch (RequestScheduler.Deferred ex) {
+            log.warn("run stopped, the next one continues: " + ex.getMessage());
+        } finally {
+            Metrics.RUN.time("phase", System.nanoTime() - a, "phase", "run");
+            Metrics.RUN.write();
+            saveQuota();
+        }
+    }
+
+    private static void saveQuota() {
+        try {
+            Transport.SHARED.getScheduler().save();
+        } catch (IOException ex) {
+            log.warn("cannot save the request quota", ex);
+        }
     }
 
     private static void delData() {
         log.info("deleting data");
-        File data = new File("data");
-        if (data.exists()) {
-            for (File f : data.listFiles()) {
-                f.delete();
-            }
-        }
+        store.clear();
+        syncState.clear();
         File data2 = new File("databases");
         if (data2.exists()) {
             for (File f : data2.listFiles()) {
@@ -65,116 +121,458 @@ public class App {
         }
     }
 
-    private static Stream<Entry> processEntries() {
-        return Arrays.stream(new File("data").listFiles())
-                .map(Utils::toEntry)
-                .filter(Optional::isPresent)
-                .map(Optional::get);
+    // categories and tags of the account plus the stored entries, served offline by FeedlyStandIn
+    private static void record(File dir) throws IOException {
+        Feedly feedly = new Feedly(token);
+        Fixtures fixtures = new Fixtures();
+        fixtures.categories.addAll(Arrays.asList(feedly.getCategories()));
+        fixtures.tags.addAll(Arrays.asList(feedly.getTags()));
+        fixtures.entries = store.entries().collect(Collectors.toList());
+        fixtures.save(dir);
     }
 
-    private static void recommendTag(boolean autoMode) throws IOException {
-        log.info("recommending");
-        List<Tag> tags = Arrays.stream(new Feedly(token).getTags())
+    private static Corpus loadCorpus() {
+        log.info("loading corpus");
+        return Corpus.load(store.entries());
+    }
+
+    // logs what a recommendation run would suggest for the unread untagged entries
+    private static void score() throws IOException {
+        final long a = System.nanoTime();
+        ScoringSnapshot snapshot = ScoringSnapshot.open(new File(ScoringSnapshot.FILE));
+        ScoringSnapshot.Scorer scorer = snapshot.scorer();
+        int scored = 0;
+        for (Entry e : (Iterable<Entry>) store.entries()::iterator) {
+            if (!e.unread || !Utils.untagged(e.tags)) {
+                continue;
+            }
+            scored++;
+            double[] p = scorer.docIsA(e);
+            for (int t = 0; t < p.length; t++) {
+                if (p[t] >= 0.6) {
+                    log.info(String.format("%s : %.02f : %s", snapshot.getName(t), p[t], Utils.substr(e.title, 60)));
+                }
+            }
+        }
+        log.info(String.format("scored %d entries in %.2fs", scored, (System.nanoTime() - a) / 1e9));
+    }
+
+    private static List<Tag> getTags() throws IOException {
+        return Arrays.stream(new Feedly(token).getTags())
                 .filter(t -> t.label != null)
                 .collect(Collectors.toList());
+    }
 
-        for (Tag tag : tags) {
-            processTag(tag, autoMode, tags);
+    private static void recommendTag(boolean autoMode) throws IOException {
+        log.info("recommending");
+        List<Tag> tags = getTags();
+
+        ModelStore models = new ModelStore(new File("databases", "model.db"), tags.size());
+        ForkJoinPool pool = new ForkJoinPool(THREADS);
+        try {
+            log.info("loading corpus");
+            Corpus corpus = Corpus.load(store.entries(), models.getVocabulary());
+            processTags(tags, autoMode, corpus, models, null, null, pool);
+        } finally {
+            pool.shutdown();
+            models.close();
+        }
+    }
+
+    // Runs sync + recommend cycles until the JVM is stopped, see Daemon. The vocabulary,
+    // corpus and models stay in memory, a cycle only tokenizes and trains what changed.
+    private static void daemon(boolean autoMode) throws IOException, InterruptedException {
+        warmModels = new ModelStore(new File("databases", "model.db"), false, getTags().size());
+        ForkJoinPool pool = new ForkJoinPool(THREADS);
+        new Daemon(() -> cycle(autoMode, pool), idle -> checkpoint(idle, pool)).run();
+    }
+
+    private static void cycle(boolean autoMode, ForkJoinPool pool) throws Exception {
+        Metrics.RUN.clear();
+        final long a = System.nanoTime();
+        boolean completed = false;
+        try {
+            getData();
+            Set<String> changes = store.changes();
+            List<Doc> changed = null;
+            if (warmCorpus == null) {
+                log.info("loading corpus");
+                warmCorpus = Corpus.load(store.entries(), warmModels.getVocabulary());
+            } else {
+                List<Entry> entries = new ArrayList<>(changes.size());
+                for (String id : changes) {
+                    store.get(id).ifPresent(entries::add);
+                }
+                changed = warmCorpus.update(entries.stream());
+            }
+            warmBayes = processTags(getTags(), autoMode, warmCorpus, warmModels, warmBayes, changed, pool);
+            completed = true;
+        } finally {
+            if (!completed) { // anything thrown, errors included: the next cycle starts from what is on disk
+                warmModels.rollback();
+                warmCorpus = null;
+                warmBayes = null;
+            }
+            Metrics.RUN.time("phase", System.nanoTime() - a, "phase", "run");
+            Metrics.RUN.write();
+            saveQuota();
+        }
+    }
+
+    // everything but the models is saved while a cycle runs, the models after training
+    private static void checkpoint(boolean idle, ForkJoinPool pool) {
+        pool.shutdown();
+        try {
+            store.flush();
+            syncState.save();
+        } catch (IOException ex) {
+            log.error("cannot save the entry store", ex);
+        }
+        if (idle) {
+            warmModels.close();
+        } else {
+            log.warn("a cycle is still running, its model changes are dropped");
         }
     }
 
-    private static void processTag(final Tag tagObj, boolean autoMode, List<Tag> feedlyTags) {
+    // Trains and recommends. A warm model of the daemon is only updated with the changed
+    // docs if its tags are unchanged, otherwise the stored model is loaded and brought in
+    // line with the whole corpus. Returns the trained model.
+    private static MultiBayes processTags(List<Tag> feedlyTags, boolean autoMode, Corpus corpus, ModelStore models,
+            MultiBayes warm, Collection<Doc> changed, ForkJoinPool pool) {
         final long a = System.currentTimeMillis();
-        final String tag = tagObj.label;
-
-        log.info("start tag: " + tag);
-        Bayes bayes = new Bayes(tag, useDB);
-
-        log.info("train");
-        processEntries()
-                .forEach(e -> {
-                    List<String> content = Utils.getAllContent(e);
-                    if (Utils.containsTag(e.tags, tag)) {
-                        bayes.add(tag, content);
-                    } else if (!e.unread) {
-                        bayes.add("", content);
-                    }
-                });
-        bayes.reduce(BAYES_CFG);
+        List<String> labels = feedlyTags.stream().map(t -> t.label).collect(Collectors.toList());
+
+        log.info("train " + labels);
+        final MultiBayes bayes;
+        if (warm != null && changed != null && warm.hasTags(labels)) {
+            bayes = warm;
+        } else {
+            bayes = models.load(labels);
+        }
+        long[] trained = new long[bayes.size()];
+        for (int t = 0; t < bayes.size(); t++) {
+            trained[t] = bayes.getTrainNanos(t);
+        }
+        if (bayes == warm) {
+            models.update(bayes, changed, pool);
+        } else {
+            models.update(bayes, corpus, pool);
+        }
+        models.save(bayes);
+        for (int t = 0; t < bayes.size(); t++) {
+            Metrics.RUN.time("phase", bayes.getTrainNanos(t) - trained[t], "phase", "train", "tag", bayes.getName(t));
+        }
 
         log.info("recommend");
-        processEntries()
-                .filter(e -> e.unread)
-                .filter(e -> Utils.untagged(e.tags))
-                .forEach(entry -> {
-                    double p = bayes.docIsA(Utils.getAllContent(entry));
-                    log.debug(String.format("%s : %.02f : %s", tag, p, entry.title));
-                    try {
-                        if (autoMode && p >= autoTagThreshold) {
-                            log.info(String.format("auto: %.2f: %s: %s tagged: %b, markRead: %b",
-                                            p, bayes.getName(),
-                                            Utils.substr(entry.title, 40),
-                                            tagEntry(entry, bayes.getName(), feedlyTags),
-                                            new Feedly(token).markAsread(entry))
-                            );
+        List<Doc> candidates = corpus.docs()
+                .filter(d -> d.unread)
+                .filter(d -> d.untagged())
+                .collect(Collectors.toList());
+        List<int[]> distinct = candidates.stream()
+                .map(d -> bayes.distinct(d.tokens))
+                .collect(Collectors.toList());
+        final int[] hashes = distinct.stream().mapToInt(Arrays::hashCode).toArray();
+
+        // Scores of the last runs are reused while the entry and the model version of the tag
+        // are unchanged. A tag is only reduced if one of its scores is missing, or for a new
+        // snapshot once the model changed. Read entries change the version of every tag.
+        ScoreCache cache = models.getScores(BAYES_CFG);
+        int dropped = cache.retain(candidates, hashes, labels);
+        final File snapshotFile = new File(ScoringSnapshot.FILE);
+        final boolean snapshot = !cache.isSnapshot(models.getVersion()) || !snapshotFile.exists();
+        final long[] versions = new long[bayes.size()];
+        for (int t = 0; t < bayes.size(); t++) {
+            versions[t] = models.getVersion(bayes.getName(t));
+        }
+
+        // reduce and score every tag as its own task, decisions are applied afterwards
+        final double threshold = autoMode ? autoTagThreshold : 0.6;
+        final long[] nanos = new long[bayes.size()];
+        final long[] reduceNanos = new long[bayes.size()];
+        final boolean[] reduced = new boolean[bayes.size()];
+        final int[] cached = new int[bayes.size()];
+        final long[] cpuNanos = new long[bayes.size()];
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final long c = System.nanoTime();
+        List<Decision> decisions;
+        try {
+            decisions = pool.submit(() -> IntStream.range(0, bayes.size()).parallel()
+                    .mapToObj(t -> {
+                        final long s = System.nanoTime();
+                        final long cpu = threads.getCurrentThreadCpuTime();
+                        String tag = bayes.getName(t);
+                        if (snapshot) {
+                            bayes.reduce(t, BAYES_CFG);
+                            reduced[t] = true;
+                            reduceNanos[t] = System.nanoTime() - s;
                         }
-                        if (!autoMode && p >= 0.6) {
-                            System.out.println(String.format("%.2f: %s: %s",
-                                            p, bayes.getName(), entry.title));
-                            BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
-                            if (br.readLine().trim().equals("j")) {
-                                tagEntry(entry, bayes.getName(), feedlyTags);
+                        List<Decision> found = new ArrayList<>();
+                        for (int i = 0; i < candidates.size(); i++) {
+                            Doc doc = candidates.get(i);
+                            Double p = cache.get(doc, t, versions[t]);
+                            if (p != null) {
+                                cached[t]++;
+                            } else {
+                                if (!reduced[t]) {
+                                    final long r = System.nanoTime();
+                                    bayes.reduce(t, BAYES_CFG);
+                                    reduced[t] = true;
+                                    reduceNanos[t] = System.nanoTime() - r;
+                                }
+                                p = bayes.docIsA(t, distinct.get(i));
+                                cache.put(doc, t, versions[t], p);
+                            }
+                            log.debug(String.format("%s : %.02f : %s", tag, p, doc.title));
+                            if (p >= threshold) {
+                                found.add(new Decision(doc, tag, p));
                             }
                         }
-                    } catch (IOException ex) {
-                        log.fatal("something went brutally wrong", ex);
-                    }
-                });
-        bayes.close();
+                        nanos[t] = System.nanoTime() - s;
+                        cpuNanos[t] = threads.getCurrentThreadCpuTime() - cpu;
+                        return found;
+                    })
+                    .flatMap(List::stream)
+                    .collect(Collectors.toList())).get();
+        } catch (InterruptedException | ExecutionException ex) {
+            log.fatal("something went brutally wrong", ex);
+            return bayes;
+        }
+        final long wall = System.nanoTime() - c;
+        if (snapshot) { // every tag is reduced now
+            try {
+                ScoringSnapshot.write(bayes, snapshotFile);
+                cache.setSnapshot(models.getVersion());
+            } catch (IOException ex) {
+                log.warn("cannot write the scoring snapshot", ex);
+            }
+        }
+        cache.save();
+        models.commit();
+
+        long cpu = 0;
+        int reused = 0;
+        for (int t = 0; t < bayes.size(); t++) {
+            cpu += cpuNanos[t];
+            reused += cached[t];
+            String tag = bayes.getName(t);
+            Metrics.RUN.time("phase", reduceNanos[t], "phase", "reduce", "tag", tag);
+            Metrics.RUN.time("phase", nanos[t] - reduceNanos[t], "phase", "score", "tag", tag);
+            if (reduced[t]) {
+                Metrics.RUN.gauge("model_words", bayes.getKnownWords(t), "tag", tag, "stage", "before_reduce");
+                Metrics.RUN.gauge("model_words", bayes.getKeptWords(t), "tag", tag, "stage", "after_reduce");
+            }
+            Metrics.RUN.count("entries_scored", candidates.size() - cached[t], "tag", tag);
+            Metrics.RUN.count("scores_cached", cached[t], "tag", tag);
+            log.info(String.format("tag %s: train %.2fs, reduce+score %.2fs, %d of %d scores cached",
+                    bayes.getName(t), bayes.getTrainNanos(t) / 1e9, nanos[t] / 1e9, cached[t], candidates.size()));
+        }
+        log.info(String.format("score cache: %d scores reused, %d entries dropped, %d entries stored",
+                reused, dropped, cache.size()));
+        // CPU time of the tasks, not the time a sequential run would take
+        log.info(String.format("%d threads: reduce+score took %.2fs, %.2fs CPU, %.1f cores busy",
+                THREADS, wall / 1e9, cpu / 1e9, (double) cpu / Math.max(1, wall)));
+
+        ActionBuffer actions = new ActionBuffer(new Feedly(token), new File(ActionBuffer.FILE));
+        if (autoMode) {
+            for (Decision d : decisions) {
+                recommend(d, feedlyTags, actions);
+            }
+        } else {
+            queue(decisions);
+        }
+
+        final long w = System.nanoTime();
+        try {
+            log.info("writing back " + actions.size() + " actions");
+            actions.flush();
+        } catch (IOException ex) {
+            log.fatal("something went brutally wrong", ex);
+        }
+        Metrics.RUN.time("phase", System.nanoTime() - w, "phase", "write_back");
 
         final long b = System.currentTimeMillis();
         log.info(String.format("recommendation run took: %.2fs", (b - a) / 1000d));
+        return bayes;
     }
 
+    private static void recommend(Decision d, List<Tag> feedlyTags, ActionBuffer actions) {
+        Optional<Tag> ft = findTag(d.tag, feedlyTags);
+        if (d.p >= autoTagThreshold && ft.isPresent()) {
+            actions.tag(d.doc.id, ft.get(), String.format("auto: %.2f: %s: %s",
+                    d.p, d.tag, Utils.substr(d.doc.title, 40)));
+            actions.markAsRead(d.doc.id);
+            Metrics.RUN.count("decisions", 1, "tag", d.tag, "decision", "auto");
+        }
+    }
+
+    // interactive mode: the suggestions wait in the review queue, nothing blocks on the console
+    private static void queue(List<Decision> decisions) {
+        ReviewQueue queue = ReviewQueue.load(new File(ReviewQueue.FILE));
+        queue.offer(decisions);
+        try {
+            queue.save();
+            log.info(queue.size() + " suggestions queued for review");
+        } catch (IOException ex) {
+            log.error("cannot save the review queue", ex);
+        }
+        Metrics.RUN.gauge("review_queue", queue.size());
+    }
+
+    // Asks for every queued suggestion, best first: j tags the entry, q stops and keeps the
+    // rest for later, anything else rejects it. The accepted ones are written back in bulk.
+    private static void review() throws IOException {
+        ReviewQueue queue = ReviewQueue.load(new File(ReviewQueue.FILE));
+        List<Tag> feedlyTags = getTags();
+        ActionBuffer actions = new ActionBuffer(new Feedly(token), new File(ActionBuffer.FILE));
+        BufferedReader console = new BufferedReader(new InputStreamReader(System.in));
+        System.out.println(queue.size() + " suggestions (j: tag, q: stop, anything else: reject)");
+        for (ReviewQueue.Item item : queue.items()) {
+            System.out.println(item);
+            String answer = console.readLine();
+            if (answer == null || answer.trim().equals("q")) {
+                break;
+            }
+            Optional<Tag> ft = findTag(item.tag, feedlyTags);
+            boolean accepted = answer.trim().equals("j") && ft.isPresent();
+            if (accepted) {
+                actions.tag(item.entryId, ft.get(), String.format("manual: %.2f: %s: %s",
+                        item.p, item.tag, Utils.substr(item.title, 40)));
+            }
+            queue.done(item, accepted);
+        }
+        queue.save(); // the accepted ones are kept by the action buffer until they are sent
+        log.info("writing back " + actions.size() + " actions, " + queue.size() + " suggestions left");
+        actions.flush();
+    }
+
+    // incremental: only entries newer than the last complete sync of each category are fetched,
+    // categories are fetched in parallel. A sync stopped by the request quota is continued later.
     private static void getData() throws Exception {
         log.info("getting data");
+        final long started = System.currentTimeMillis();
+        final long a = System.nanoTime();
         Feedly urls = new Feedly(token);
-        for (Category cat : urls.getCategories()) {
-            log.info("getting entries for category: " + cat.label);
-            StreamContent stream = urls.getStreamContents(cat.id);
-            saveEntries(stream.items);
-            while (stream.continuation != null) {
-                stream = urls.getStreamContents(cat.id, stream.continuation);
-                saveEntries(stream.items);
+        try {
+            new Fetcher(urls, store, syncState, Fetcher.WORKERS).fetch(urls.getCategories());
+            syncMarkers(urls, started);
+        } catch (RequestScheduler.Deferred ex) { // the sync state lets the next run continue
+            log.warn("sync incomplete, continuing with the stored entries: " + ex.getMessage());
+        }
+        store.flush();
+        Metrics.RUN.time("phase", System.nanoTime() - a, "phase", "fetch");
+        store.compact();
+    }
+
+    // read and tag changes of entries that are older than the stream high-water marks
+    private static void syncMarkers(Feedly urls, long started) throws IOException {
+        long since = syncState.markersNewerThan;
+        if (since > 0) {
+            ReadMarkers reads = urls.getReadMarkers(since);
+            int changed = markUnread(reads.entries, false) + markUnread(reads.unread, true);
+
+            Map<String, Tag> tags = Arrays.stream(urls.getTags())
+                    .collect(Collectors.toMap(t -> t.id, t -> t, (t1, t2) -> t1));
+            TagMarkers tagged = urls.getTagMarkers(since);
+            if (tagged.taggedEntries != null) {
+                for (Map.Entry<String, String[]> e : tagged.taggedEntries.entrySet()) {
+                    Tag tag = tags.get(e.getKey());
+                    for (String id : Utils.toList(e.getValue())) {
+                        Optional<Entry> entry = store.get(id);
+                        if (tag != null && entry.isPresent() && !Utils.containsTagId(entry.get().tags, tag.id)) {
+                            List<Tag> entryTags = new ArrayList<>(Utils.toList(entry.get().tags));
+                            entryTags.add(tag);
+                            entry.get().tags = entryTags.toArray(new Tag[entryTags.size()]);
+                            store.put(entry.get());
+                            changed++;
+                        }
+                    }
+                }
             }
+            log.info("updated " + changed + " entries from markers");
+            if (started - syncState.tagsCheckedAt >= TAG_CHECK_INTERVAL) {
+                syncTags(urls);
+                syncState.tagsCheckedAt = started;
+            }
+        } else { // a first sync fetched the current tags with the entries
+            syncState.tagsCheckedAt = started;
+        }
+        syncState.markersNewerThan = started;
+        syncState.save();
+    }
 
+    // The tag markers only report entries that were tagged, not the removed tags (neither
+    // does FeedlyStandIn, which records no marker for untag and tag deletes). Every
+    // TAG_CHECK_INTERVAL the ids of every tag stream are fetched, and the stored entries
+    // get exactly the tags whose streams they are in. This is the only path for removals.
+    private static void syncTags(Feedly urls) throws IOException {
+        final long a = System.currentTimeMillis();
+        Map<String, Tag> tags = new HashMap<>();
+        Map<String, Set<String>> tagged = new HashMap<>(); // tag id -> entry ids
+        for (Tag tag : urls.getTags()) {
+            if (tag.label != null) {
+                tags.put(tag.id, tag);
+                tagged.put(tag.id, new HashSet<>(urls.getAllStreamIds(tag.id)));
+            }
+        }
+        List<Entry> changed = new ArrayList<>();
+        for (Entry e : (Iterable<Entry>) store.entries()::iterator) {
+            List<Tag> now = new ArrayList<>();
+            boolean differs = false;
+            for (Tag t : Utils.toList(e.tags)) { // tags without a label (global.*) are kept
+                if (!tagged.containsKey(t.id) || tagged.get(t.id).contains(e.id)) {
+                    now.add(t);
+                } else {
+                    differs = true;
+                }
+            }
+            for (Map.Entry<String, Set<String>> t : tagged.entrySet()) {
+                if (t.getValue().contains(e.id) && !Utils.containsTagId(e.tags, t.getKey())) {
+                    now.add(tags.get(t.getKey()));
+                    differs = true;
+                }
+            }
+            if (differs) {
+                e.tags = now.toArray(new Tag[now.size()]);
+                changed.add(e);
+            }
+        }
+        for (Entry e : changed) {
+            store.put(e);
         }
+        log.info(String.format("checked %d tag streams in %.2fs, updated %d entries",
+                tagged.size(), (System.currentTimeMillis() - a) / 1000d, changed.size()));
     }
 
-    private static void saveEntries(Entry[] entries) throws NoSuchAlgorithmException, IOException {
-        Gson gson = new Gson();
-        File data = new File("data");
-        data.mkdir();
-        for (Entry entry : entries) {
-            File f = new File(data, Utils.hash(entry.id) + ".txt");
-            Files.write(f.toPath(), gson.toJson(entry).getBytes(), CREATE, TRUNCATE_EXISTING);
-            // f.deleteOnExit();
+    private static int markUnread(String[] ids, boolean unread) throws IOException {
+        int changed = 0;
+        for (String id : Utils.toList(ids)) {
+            Optional<Entry> entry = store.get(id);
+            if (entry.isPresent() && entry.get().unread != unread) {
+                entry.get().unread = unread;
+                store.put(entry.get());
+                changed++;
+            }
         }
+        return changed;
     }
 
-    private static boolean tagEntry(final Entry entry, String tagName, List<Tag> feedlyTags) throws IOException {
-        final Feedly urls = new Feedly(token);
+    private static Optional<Tag> findTag(String tagName, List<Tag> feedlyTags) {
         for (Tag ft : feedlyTags) {
             if (tagName.equals(ft.label)) {
-                return urls.tagEntry(entry, ft);
+                return Optional.of(ft);
             }
         }
-        return false;
+        return Optional.empty();
     }
 
     private static void test() throws Exception {
         log.info("testing");
-        Tag[] tags = new Feedly(token).getTags();
+        List<String> tags = Arrays.stream(new Feedly(token).getTags())
+                .map(t -> t.label)
+                .filter(l -> l != null)
+                .collect(Collectors.toList());
+        Corpus corpus = loadCorpus();
 
         int folds = 15;
         // params in BayesCfg
@@ -191,83 +589,87 @@ public class App {
             }
         }
 
-        SimpleEntry<BayesCfg, Double> x = configs.stream().parallel()
-                .map(config -> {
-                    double f = IntStream.rangeClosed(1, folds).asDoubleStream()
-                    .map(i -> test(tags, config)) // compute f measure
-                    .filter(d -> !Double.isNaN(d))
-                    .summaryStatistics().getAverage();
-                    return new SimpleEntry<>(config, f);
-                })
-                .sorted((o1, o2) -> -1 * Double.compare(o1.getValue(), o2.getValue())) // sort reversed!
-                .findFirst()
-                .get();
-        log.info("best cfg: " + x);
+        double[] f = evaluate(corpus, tags, folds, configs);
+        int best = best(f);
+        log.info(String.format("F-Measures over %d fixed folds, every entry tested once; "
+                + "not comparable with the random 10%% samples that test used before", folds));
+        for (int c = 0; c < configs.size(); c++) {
+            log.info(String.format("F-Measure: %.02f with %s", f[c], configs.get(c)));
+        }
+        log.info("best cfg: " + new SimpleEntry<>(configs.get(best), f[best]));
+
+        // the same evaluation with the bounded hashed model that -Dfeedly.hashedModelMB selects
+        if (HashedVocabulary.BUDGET > 0) {
+            boolean prefilter = HashedVocabulary.PREFILTER > 1;
+            int buckets = HashedVocabulary.buckets(HashedVocabulary.BUDGET, tags.size(), prefilter);
+            log.info("loading hashed corpus, " + buckets + " buckets, prefilter minDoc " + HashedVocabulary.PREFILTER);
+            Corpus hashed = Corpus.load(store.entries(), new HashedVocabulary(buckets, HashedVocabulary.PREFILTER));
+            double[] h = evaluate(hashed, tags, folds, configs);
+            DoubleSummaryStatistics diff = new DoubleSummaryStatistics();
+            for (int c = 0; c < configs.size(); c++) {
+                log.info(String.format("F-Measure: exact %.03f, hashed %.03f (%+.03f) with %s",
+                        f[c], h[c], h[c] - f[c], configs.get(c)));
+                if (!Double.isNaN(h[c] - f[c])) {
+                    diff.accept(h[c] - f[c]);
+                }
+            }
+            int hashedBest = best(h);
+            log.info(String.format("hashed model: mean difference %+.03f, best cfg: %s (exact: %.03f)",
+                    diff.getAverage(), new SimpleEntry<>(configs.get(hashedBest), h[hashedBest]), f[best]));
+        }
     }
 
-    private static Double test(Tag[] tags, BayesCfg cfg) {
-        double testRatio = 0.1;
-        double pThreshold = autoTagThreshold;
-
-        double tp = 0;
-        double tn = 0;
-        double fp = 0;
-        double fn = 0;
-
-        Map<String, Bayes> classifiers = Arrays.stream(tags)
-                .filter(t -> t.label != null)
-                .map(tag -> new Bayes(tag.label, false))
-                .collect(Collectors.toMap(b -> b.getName(), b -> b));
-
-//            log.info("split train / test");
-        Multimap<String, Entry> train = ArrayListMultimap.create();
-        Multimap<String, Entry> test = ArrayListMultimap.create();
-        processEntries()
-                .forEach(e -> {
-                    String label = Utils.untagged(e.tags) ? "untagged" : e.tags[0].label;
-                    Multimap<String, Entry> target = Math.random() < testRatio ? test : train;
-                    target.put(label, e);
-                });
-
-//            log.info("train");
-        for (String k : train.keySet()) {
-            for (Entry e : train.get(k)) {
-                List<String> content = Utils.getAllContent(e);
-                for (Bayes b : classifiers.values()) {
-                    b.add(k, content);
+    private static void tune() throws Exception {
+        log.info("tuning");
+        List<String> tags = Arrays.stream(new Feedly(token).getTags())
+                .map(t -> t.label)
+                .filter(l -> l != null)
+                .collect(Collectors.toList());
+        Corpus corpus = loadCorpus();
+
+        List<BayesCfg> candidates = Tuner.candidates(Tuner.CONFIGS, Tuner.SEED,
+                Tuner.Range.of("feedly.tune.minDoc", "1:3"),
+                Tuner.Range.of("feedly.tune.maxDocP", "0.9:0.99"),
+                Tuner.Range.of("feedly.tune.minP", "0:0.06"));
+        candidates.add(0, BAYES_CFG); // the one in use, for comparison
+        ForkJoinPool pool = new ForkJoinPool(THREADS);
+        try {
+            List<Tuner.Result> ranked = new Tuner(corpus, tags, 15, autoTagThreshold, new File(Tuner.CACHE))
+                    .search(candidates, pool);
+            for (Tuner.Result r : ranked.subList(0, Math.min(10, ranked.size()))) {
+                log.info(r);
+            }
+            for (Tuner.Result r : ranked) {
+                if (r.cfg == BAYES_CFG) {
+                    log.info("current cfg: " + r);
                 }
             }
+            log.info("best cfg: " + ranked.get(0));
+        } finally {
+            pool.shutdown();
         }
-        for (Bayes b : classifiers.values()) {
-            b.reduce(cfg);
-        }
-
-//            log.info("test");
-        for (String k : test.keySet()) {
-            for (Entry e : test.get(k)) {
-                List<String> content = Utils.getAllContent(e);
-                for (Bayes b : classifiers.values()) {
-                    boolean match = b.docIsA(content) > pThreshold;
-                    boolean shouldMatch = k.equals(b.getName());
-                    if (match && shouldMatch) {
-                        tp++;
-                    } else if (match && !shouldMatch) {
-                        fp++;
-                    } else if (!match && shouldMatch) {
-                        fn++;
-                    } else if (!match && !shouldMatch) {
-                        tn++;
-                    }
-                }
+    }
+
+    // trained once per fold, every config is a view on the same counts
+    private static double[] evaluate(Corpus corpus, List<String> tags, int folds, List<BayesCfg> configs) {
+        CrossValidation cv = new CrossValidation(corpus, tags, folds);
+        ForkJoinPool pool = new ForkJoinPool(THREADS);
+        try {
+            return cv.evaluate(configs, autoTagThreshold, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // the first of the highest scores
+    private static int best(double[] f) {
+        int best = 0;
+        for (int c = 0; c < f.length; c++) {
+            if (f[c] > f[best]) {
+                best = c;
             }
         }
-        double precision = tp / (tp + fp);
-        double recall = tp / (tp + fn);
-        double beta2 = Math.pow(0.75, 2); // f(0.5) - put weight on precision
-        double f = (1 + beta2) * (precision * recall) / (beta2 * precision + recall);
-        log.info(String.format("F-Measure: %.02f with %s \t Precision: %.02f, Recall: %.02f",
-                f, cfg, precision, recall));
-        return f;
+        return best;
     }
 }
 
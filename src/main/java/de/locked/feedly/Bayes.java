@@ -1,146 +1,174 @@
 package de.locked.feedly;
 
-import java.io.File;
-import java.io.Serializable;
 import static java.lang.Math.min;
 import static java.lang.Math.max;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
-import org.mapdb.*;
 
 // http://www.paulgraham.com/spam.html
 // http://www.paulgraham.com/naivebayes.html
 public class Bayes {
 
     private static final Logger log = LogManager.getLogger(Bayes.class);
-    private static final int TOP_X_WORDS = 100;
+    static final int TOP_X_WORDS = 100;
 
-    private final Map<String, Container> map;
+    private final Vocabulary vocabulary;
     private final String name;
     private double na = 0;
     private double nb = 0;
-    private DB db;
 
-    Bayes(String tag, boolean useDB) {
+    // word counts indexed by vocabulary id, grown on demand
+    // a word with docA + docB == 0 is unknown to this classifier
+    private int[] a = new int[0];
+    private int[] b = new int[0];
+    private int[] docA = new int[0];
+    private int[] docB = new int[0];
+    private int size = 0;
+
+    // marks words already counted for the current doc
+    private int[] seen = new int[0];
+    private int stamp = 0;
+    private final TopWords top = new TopWords(TOP_X_WORDS);
+
+    Bayes(String tag) {
+        this(tag, new Vocabulary());
+    }
+
+    Bayes(String tag, Vocabulary vocabulary) {
         this.name = tag;
-        File dbLoc = new File("databases/");
-        dbLoc.mkdir();
-
-        if (useDB) {
-            db = DBMaker.newFileDB(new File(dbLoc, tag + ".db"))
-                    .closeOnJvmShutdown()
-                    .deleteFilesAfterClose()
-                    .transactionDisable()
-                    .make();
-            map = db.getHashMap(name);
-        } else {
-            map = new HashMap<>();
-        }
+        this.vocabulary = vocabulary;
     }
 
     public String getName() {
         return name;
     }
 
-    void close() {
-        if (db != null) {
-            db.close();
+    Vocabulary getVocabulary() {
+        return vocabulary;
+    }
+
+    private void ensureCapacity(int words) {
+        if (words <= size) {
+            return;
         }
+        int cap = max(words, size * 3 / 2 + 16);
+        a = Arrays.copyOf(a, cap);
+        b = Arrays.copyOf(b, cap);
+        docA = Arrays.copyOf(docA, cap);
+        docB = Arrays.copyOf(docB, cap);
+        seen = Arrays.copyOf(seen, cap);
+        size = cap;
+    }
+
+    // {a, b, docA, docB} of a word, to compare other implementations with
+    int[] counts(int word) {
+        return word < size ? new int[]{a[word], b[word], docA[word], docB[word]} : new int[4];
     }
 
-    private double isA(String word) {
-        Container c = map.get(word);
-        if (c == null) {
+    double getNa() {
+        return na;
+    }
+
+    double getNb() {
+        return nb;
+    }
+
+    private double isA(int word) {
+        if (word < 0 || word >= size || docA[word] + docB[word] == 0) {
             return .5;
         }
 
-        double pa = min(1, (double) c.a * 2 / na); // c.a x 2 due to PaulGraham
-        double pb = min(1, (double) c.b / nb);
+        double pa = min(1, (double) a[word] * 2 / na); // c.a x 2 due to PaulGraham
+        double pb = min(1, (double) b[word] / nb);
         double p = pa / (pa + pb);
         return max(.01, min(0.99, p)); // bind into [.01, .99]
     }
 
-    private Container put(String word) {
-        if (!map.containsKey(word)) {
-            map.put(word.intern(), new Container());
+    private int[] toIds(List<String> words, boolean create) {
+        int[] ids = new int[words.size()];
+        int i = 0;
+        for (String word : words) {
+            ids[i++] = create ? vocabulary.id(word) : vocabulary.find(word);
         }
-        return map.get(word.intern());
+        return ids;
     }
 
     public synchronized void add(String className, List<String> words) {
-        if (this.name.equals(className)) {
-            addA(words);
-        } else {
-            addB(words);
-        }
+        add(className, toIds(words, true));
     }
 
-    private void addA(List<String> words) {
-        for (String word : words) {
-            put(word).a++;
+    public synchronized void add(String className, int[] words) {
+        int max = -1;
+        for (int word : words) {
+            max = max(max, word);
         }
-        for (String word : new HashSet<>(words)) {
-            put(word).docA++;
+        ensureCapacity(max + 1);
+
+        if (this.name.equals(className)) {
+            add(words, a, docA);
+            na++;
+        } else {
+            add(words, b, docB);
+            nb++;
         }
-        na++;
     }
 
-    private void addB(List<String> words) {
-        for (String word : words) {
-            put(word).b++;
-        }
-        for (String word : new HashSet<>(words)) {
-            put(word).docB++;
+    private void add(int[] words, int[] counts, int[] docCounts) {
+        stamp++;
+        for (int word : words) {
+            counts[word]++;
+            if (seen[word] != stamp) {
+                seen[word] = stamp;
+                docCounts[word]++;
+            }
         }
-        nb++;
     }
 
-    private int from05(double a, double b) {
-        a = Math.abs(a - 0.5);
-        b = Math.abs(b - 0.5);
-        return Double.compare(a, b);
+    double docIsA(List<String> strings) {
+        return docIsA(toIds(strings, false));
     }
 
-    double docIsA(List<String> strings) {
-        List<Double> pset = strings.stream()
-                .map(str -> isA(str)) // get the probabilities
-                .sorted((p1, p2) -> -from05(p1, p2)) // sort by descending distance from 0.5
-                .limit(TOP_X_WORDS)
-                .collect(Collectors.toList());
-
-        double p = 1, np = 1;
-        for (Double ap : pset) {
-            p *= ap;
-            np *= 1 - ap;
+    // every distinct word counts once, only the TOP_X_WORDS most decisive ones are used
+    synchronized double docIsA(int[] words) {
+        top.clear();
+        stamp++;
+        for (int word : words) {
+            if (word >= 0 && word < size) {
+                if (seen[word] == stamp) {
+                    continue;
+                }
+                seen[word] = stamp;
+            }
+            top.offer(isA(word));
         }
-        return p / (p + np);
+        return top.probability();
     }
 
     void reduce(BayesCfg cfg) {
         double n = na + nb;
         double maxDocs = n * cfg.maxDocP;
 
-        int before = map.size();
-        for (String w : new ArrayList<>(map.keySet())) {
-            Container c = map.get(w);
-            if (c.docA + c.docB < cfg.minDoc) { // need at least that many docs
-                map.remove(w);
-            } else if (c.docA + c.docB > maxDocs) { // need at most that many docs
-                map.remove(w);
+        int before = 0, after = 0;
+        for (int w = 0; w < size; w++) {
+            int docs = docA[w] + docB[w];
+            if (docs == 0) {
+                continue;
             }
-            double p = 1d * c.a / (c.a + c.b);
+            before++;
+            boolean remove = docs < cfg.minDoc // need at least that many docs
+                    || docs > maxDocs; // need at most that many docs
+            double p = 1d * a[w] / (a[w] + b[w]);
             if (Math.abs(p - 0.5) < cfg.minP) { // don't use words that have no power
-                map.remove(w);
+                remove = true;
+            }
+            if (remove) {
+                a[w] = b[w] = docA[w] = docB[w] = 0;
+            } else {
+                after++;
             }
         }
-
-        int after = map.size();
 //        log.info("reduced " + before + " -> " + after);
     }
 
@@ -150,11 +178,3 @@ public class Bayes {
     }
 
 }
-
-class Container implements Serializable {
-
-    int a = 0;
-    int b = 0;
-    int docA = 0;
-    int docB = 0;
-}
@@ -0,0 +1,139 @@
+package de.locked.feedly;
+
+import de.locked.feedly.feedly.Entry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+// All entries of a run, parsed and tokenized exactly once.
+// In daemon mode the corpus stays in memory and only changed entries are added again.
+class Corpus {
+
+    private static final Logger log = LogManager.getLogger(Corpus.class);
+
+    private final Vocabulary vocabulary;
+    private final HashedVocabulary prefilter; // null unless rare words are dropped
+    private final List<Doc> docs = new ArrayList<>();
+    private final Map<String, Integer> positions = new HashMap<>(); // doc id -> index in docs
+    private final Tokenizer tokenizer = new Tokenizer();
+    private final Tokenizer.Sink sink = this::token;
+    private int[] tokens = new int[1024]; // ids of the doc being added
+    private long[] hashes = new long[0]; // and their hashes, for the prefilter
+    private int length;
+    private long tokenizeNanos;
+    private int tokenized;
+
+    Corpus(Vocabulary vocabulary) {
+        this.vocabulary = vocabulary;
+        this.prefilter = vocabulary instanceof HashedVocabulary && ((HashedVocabulary) vocabulary).prefilters()
+                ? (HashedVocabulary) vocabulary : null;
+    }
+
+    static Corpus load(Stream<Entry> entries) {
+        return load(entries, new Vocabulary());
+    }
+
+    static Corpus load(Stream<Entry> entries, Vocabulary vocabulary) {
+        final long a = System.nanoTime();
+        Corpus corpus = new Corpus(vocabulary);
+        entries.forEach(corpus::add);
+        final long b = System.nanoTime();
+        log.info(String.format("loaded %d docs, %d words in %.2fs (%d fields parsed by jsoup)",
+                corpus.size(), corpus.vocabulary.size(), (b - a) / 1e9, corpus.tokenizer.getFallbacks()));
+        // load is the rest: reading and decoding the stored entries
+        Metrics.RUN.time("phase", corpus.tokenizeNanos, "phase", "tokenize");
+        Metrics.RUN.time("phase", b - a - corpus.tokenizeNanos, "phase", "load");
+        Metrics.RUN.count("entries_tokenized", corpus.tokenized);
+        Metrics.RUN.count("tokenizer_fallbacks", corpus.tokenizer.getFallbacks());
+        Metrics.RUN.gauge("vocabulary_words", corpus.vocabulary.size());
+        return corpus;
+    }
+
+    // same tokens as Utils.getAllContent, see Tokenizer
+    // An entry that is already known replaces its doc, its tokens are reused unless it was updated.
+    Doc add(Entry e) {
+        Integer position = positions.get(e.id);
+        Doc old = position == null ? null : docs.get(position);
+        Doc doc;
+        if (old != null && old.updated == e.updated) {
+            doc = new Doc(e, old.tokens);
+        } else {
+            final long a = System.nanoTime();
+            length = 0;
+            tokenizer.tokenize(e, sink);
+            if (prefilter != null) {
+                length = prefilter.filter(hashes, tokens, length);
+            }
+            tokenizeNanos += System.nanoTime() - a;
+            tokenized++;
+            doc = new Doc(e, Arrays.copyOf(tokens, length));
+        }
+        if (position == null) {
+            positions.put(doc.id, docs.size());
+            docs.add(doc);
+        } else {
+            docs.set(position, doc);
+        }
+        return doc;
+    }
+
+    // adds new and changed entries to a loaded corpus, returns their docs
+    List<Doc> update(Stream<Entry> entries) {
+        final long a = System.nanoTime();
+        final long nanos = tokenizeNanos;
+        final int count = tokenized;
+        List<Doc> changed = new ArrayList<>();
+        entries.forEach(e -> changed.add(add(e)));
+        final long b = System.nanoTime();
+        log.info(String.format("updated %d of %d docs, %d words in %.2fs",
+                changed.size(), size(), vocabulary.size(), (b - a) / 1e9));
+        Metrics.RUN.time("phase", tokenizeNanos - nanos, "phase", "tokenize");
+        Metrics.RUN.time("phase", b - a - (tokenizeNanos - nanos), "phase", "load");
+        Metrics.RUN.count("entries_tokenized", tokenized - count);
+        Metrics.RUN.gauge("vocabulary_words", vocabulary.size());
+        return changed;
+    }
+
+    private void token(CharSequence word) {
+        if (length == tokens.length) {
+            tokens = Arrays.copyOf(tokens, length * 2);
+        }
+        if (prefilter != null) {
+            if (hashes.length < tokens.length) {
+                hashes = Arrays.copyOf(hashes, tokens.length);
+            }
+            hashes[length] = HashedVocabulary.hash(word);
+        }
+        tokens[length++] = vocabulary.id(word);
+    }
+
+    Vocabulary getVocabulary() {
+        return vocabulary;
+    }
+
+    Stream<Doc> docs() {
+        return docs.stream();
+    }
+
+    List<Doc> getDocs() {
+        return Collections.unmodifiableList(docs);
+    }
+
+    int size() {
+        return docs.size();
+    }
+
+    List<String> words(Doc doc) {
+        List<String> words = new ArrayList<>(doc.tokens.length);
+        for (int token : doc.tokens) {
+            words.add(vocabulary.word(token));
+        }
+        return words;
+    }
+}
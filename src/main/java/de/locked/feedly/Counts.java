@@ -0,0 +1,41 @@
+package de.locked.feedly;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+// term and document frequencies of one class of docs, indexed by word id
+class Counts implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    int[] terms = new int[0];
+    int[] docs = new int[0];
+    double n = 0;
+
+    void ensureCapacity(int words) {
+        if (terms.length < words) {
+            terms = Arrays.copyOf(terms, words);
+            docs = Arrays.copyOf(docs, words);
+        }
+    }
+
+    // sign is 1 to add a doc and -1 to remove it again
+    void add(int[] tokens, int[] distinct, int nDistinct, int sign) {
+        for (int w : tokens) {
+            terms[w] += sign;
+        }
+        for (int i = 0; i < nDistinct; i++) {
+            docs[distinct[i]] += sign;
+        }
+        n += sign;
+    }
+
+    // adds all counts of another table that is not larger than this one
+    void add(Counts other) {
+        for (int w = 0; w < other.terms.length; w++) {
+            terms[w] += other.terms[w];
+            docs[w] += other.docs[w];
+        }
+        n += other.n;
+    }
+}
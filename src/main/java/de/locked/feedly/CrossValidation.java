@@ -0,0 +1,235 @@
+package de.locked.feedly;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.DoubleSummaryStatistics;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+// Cross validation of BayesCfg for the per tag classifiers of App.test.
+// The label of a doc is its first tag or "untagged", the classifier of tag T
+// learns the docs labelled T against all other training docs (see Bayes).
+// Docs go to a fold by the hash of their entry id, so the split is the same in
+// every run. Counts are taken once over all docs, the training counts of a fold
+// are those minus the counts of the fold's own docs. A BayesCfg never changes
+// the counts, it only hides words from a classifier, so all configs are scored
+// on the same word probabilities, in parallel.
+class CrossValidation {
+
+    private static final Logger log = LogManager.getLogger(CrossValidation.class);
+    static final String UNTAGGED = "untagged";
+
+    private final int folds;
+    private final int[] fold; // per doc
+    private final int[] label; // per doc, index into tags or -1
+    private final int[][] tokens; // per doc
+    private final int[][] distinct; // per doc, in order of first occurrence
+    private final Counts all = new Counts();
+    private final Counts[] tagged; // per tag, the docs labelled with it
+
+    CrossValidation(Corpus corpus, List<String> tags, int folds) {
+        this.folds = folds;
+        int words = corpus.getVocabulary().size();
+        List<Doc> docs = corpus.getDocs();
+        fold = new int[docs.size()];
+        label = new int[docs.size()];
+        tokens = new int[docs.size()][];
+        distinct = new int[docs.size()][];
+        all.ensureCapacity(words);
+        tagged = new Counts[tags.size()];
+        for (int t = 0; t < tagged.length; t++) {
+            tagged[t] = new Counts();
+            tagged[t].ensureCapacity(words);
+        }
+
+        int[] seen = new int[words];
+        for (int d = 0; d < docs.size(); d++) {
+            Doc doc = docs.get(d);
+            fold[d] = fold(doc.id, folds);
+            label[d] = tags.indexOf(label(doc));
+            tokens[d] = doc.tokens;
+            distinct[d] = distinct(doc.tokens, seen, d + 1);
+            all.add(tokens[d], distinct[d], distinct[d].length, 1);
+            if (label[d] >= 0) {
+                tagged[label[d]].add(tokens[d], distinct[d], distinct[d].length, 1);
+            }
+        }
+    }
+
+    static int fold(String id, int folds) {
+        return Math.floorMod(id.hashCode(), folds);
+    }
+
+    static String label(Doc doc) {
+        return doc.untagged() ? UNTAGGED : doc.tags[0];
+    }
+
+    private static int[] distinct(int[] tokens, int[] seen, int stamp) {
+        int[] distinct = new int[tokens.length];
+        int n = 0;
+        for (int w : tokens) {
+            if (seen[w] != stamp) {
+                seen[w] = stamp;
+                distinct[n++] = w;
+            }
+        }
+        return Arrays.copyOf(distinct, n);
+    }
+
+    // the F measure of every config averaged over the folds, folds where it is
+    // undefined are left out. One fold is held in memory at a time.
+    double[] evaluate(List<BayesCfg> configs, double threshold, ForkJoinPool pool) {
+        DoubleSummaryStatistics[] stats = new DoubleSummaryStatistics[configs.size()];
+        for (int c = 0; c < stats.length; c++) {
+            stats[c] = new DoubleSummaryStatistics();
+        }
+        for (int f = 0; f < folds; f++) {
+            final int index = f;
+            double[] scores;
+            try {
+                scores = pool.submit(() -> evaluate(index, configs, threshold)).get();
+            } catch (InterruptedException | ExecutionException ex) {
+                throw new IllegalStateException("evaluation failed", ex);
+            }
+            for (int c = 0; c < scores.length; c++) {
+                if (!Double.isNaN(scores[c])) {
+                    stats[c].accept(scores[c]);
+                }
+            }
+        }
+        return Arrays.stream(stats).mapToDouble(DoubleSummaryStatistics::getAverage).toArray();
+    }
+
+    // The F measure of every config on one fold, NaN where it is undefined. Configs are
+    // scored in parallel when called from a pool, folds can be evaluated concurrently.
+    double[] evaluate(int index, List<BayesCfg> configs, double threshold) {
+        final long a = System.currentTimeMillis();
+        Fold fold = new Fold(index);
+        double[] scores = configs.parallelStream()
+                .mapToDouble(cfg -> fold.fMeasure(cfg, threshold))
+                .toArray();
+        log.info(String.format("fold %d/%d: %d test docs, %d configs in %.2fs",
+                index + 1, folds, fold.test.size(), configs.size(), (System.currentTimeMillis() - a) / 1000d));
+        return scores;
+    }
+
+    int getFolds() {
+        return folds;
+    }
+
+    // Training tables of one fold, read only once built. Per tag and word only the term
+    // count and p are kept, the power of Bayes.reduce is computed from the counts when
+    // a config asks for it: 12 bytes per tag and word.
+    private class Fold {
+
+        final int index;
+        final List<Integer> test = new ArrayList<>();
+        final double n; // training docs
+        final int[] docs; // training docs per word
+        final int[] terms; // training terms per word
+        final int[][] a; // per tag and word: training terms of the tag's docs
+        final double[][] p; // per tag and word: Bayes.isA before reduce
+
+        Fold(int index) {
+            this.index = index;
+            Counts rest = copy(all);
+            a = new int[tagged.length][];
+            double[] na = new double[tagged.length];
+            for (int t = 0; t < tagged.length; t++) {
+                a[t] = tagged[t].terms.clone();
+                na[t] = tagged[t].n;
+            }
+            for (int d = 0; d < fold.length; d++) {
+                if (fold[d] == index) {
+                    test.add(d);
+                    rest.add(tokens[d], distinct[d], distinct[d].length, -1);
+                    if (label[d] >= 0) {
+                        for (int w : tokens[d]) {
+                            a[label[d]][w]--;
+                        }
+                        na[label[d]]--;
+                    }
+                }
+            }
+            n = rest.n;
+            docs = rest.docs;
+            terms = rest.terms;
+            int words = docs.length;
+            p = new double[tagged.length][words];
+            for (int t = 0; t < tagged.length; t++) {
+                double nb = n - na[t];
+                for (int w = 0; w < words; w++) {
+                    int a = this.a[t][w];
+                    int b = terms[w] - a;
+                    double pa = min(1, (double) a * 2 / na[t]); // c.a x 2 due to PaulGraham
+                    double pb = min(1, (double) b / nb);
+                    p[t][w] = max(.01, min(0.99, pa / (pa + pb)));
+                }
+            }
+        }
+
+        // |a / (a + b) - .5| of Bayes.reduce
+        private double power(int t, int w) {
+            int a = this.a[t][w];
+            int b = terms[w] - a;
+            return Math.abs(1d * a / (a + b) - 0.5);
+        }
+
+        // a word the config removes is unknown to the classifier, just like after Bayes.reduce
+        private double isA(int t, int w, BayesCfg cfg, double maxDocs) {
+            int d = docs[w];
+            if (d == 0 || d < cfg.minDoc || d > maxDocs || power(t, w) < cfg.minP) {
+                return .5;
+            }
+            return p[t][w];
+        }
+
+        double fMeasure(BayesCfg cfg, double threshold) {
+            double maxDocs = n * cfg.maxDocP;
+            TopWords top = new TopWords(Bayes.TOP_X_WORDS);
+            double tp = 0;
+            double tn = 0;
+            double fp = 0;
+            double fn = 0;
+            for (int d : test) {
+                for (int t = 0; t < tagged.length; t++) {
+                    top.clear();
+                    for (int w : distinct[d]) {
+                        top.offer(isA(t, w, cfg, maxDocs));
+                    }
+                    boolean match = top.probability() > threshold;
+                    boolean shouldMatch = label[d] == t;
+                    if (match && shouldMatch) {
+                        tp++;
+                    } else if (match && !shouldMatch) {
+                        fp++;
+                    } else if (!match && shouldMatch) {
+                        fn++;
+                    } else if (!match && !shouldMatch) {
+                        tn++;
+                    }
+                }
+            }
+            double precision = tp / (tp + fp);
+            double recall = tp / (tp + fn);
+            double beta2 = Math.pow(0.75, 2); // f(0.5) - put weight on precision
+            double f = (1 + beta2) * (precision * recall) / (beta2 * precision + recall);
+            log.debug(String.format("fold %d: F-Measure: %.02f with %s \t Precision: %.02f, Recall: %.02f",
+                    index, f, cfg, precision, recall));
+            return f;
+        }
+    }
+
+    private static Counts copy(Counts c) {
+        Counts copy = new Counts();
+        copy.terms = c.terms.clone();
+        copy.docs = c.docs.clone();
+        copy.n = c.n;
+        return copy;
+    }
+}
@@ -0,0 +1,82 @@
+package de.locked.feedly;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+// Runs cycles on a fixed delay in one long-living JVM instead of a cron job starting
+// a new one every time. All cycles run on the same single thread, so they never
+// overlap: the next one starts feedly.intervalMinutes after the last one finished.
+// A failing cycle is logged and the schedule goes on.
+// On shutdown (SIGTERM, Ctrl-C) the running cycle gets feedly.shutdownSeconds to finish
+// before it is interrupted, then the checkpoint saves and closes everything.
+class Daemon {
+
+    private static final Logger log = LogManager.getLogger(Daemon.class);
+    static final long INTERVAL = Long.getLong("feedly.intervalMinutes", 60);
+    private static final long SHUTDOWN_TIMEOUT = Long.getLong("feedly.shutdownSeconds", 300);
+
+    interface Cycle {
+
+        void run() throws Exception;
+    }
+
+    interface Checkpoint {
+
+        // idle: no cycle is running anymore
+        void save(boolean idle);
+    }
+
+    private final Cycle cycle;
+    private final Checkpoint checkpoint;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            r -> new Thread(r, "daemon-cycle"));
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private int cycles = 0;
+
+    Daemon(Cycle cycle, Checkpoint checkpoint) {
+        this.cycle = cycle;
+        this.checkpoint = checkpoint;
+    }
+
+    // blocks until the JVM shuts down
+    void run() throws InterruptedException {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "daemon-shutdown"));
+        log.info("daemon: a cycle every " + INTERVAL + " minutes");
+        scheduler.scheduleWithFixedDelay(this::cycle, 0, INTERVAL, TimeUnit.MINUTES);
+        stopped.await();
+    }
+
+    private void cycle() {
+        final long a = System.currentTimeMillis();
+        cycles++;
+        try {
+            cycle.run();
+            log.info(String.format("cycle %d took %.2fs", cycles, (System.currentTimeMillis() - a) / 1000d));
+        } catch (Throwable ex) { // anything thrown, errors included, would cancel the schedule
+            log.error("cycle " + cycles + " failed", ex);
+        }
+    }
+
+    private void stop() {
+        log.info("daemon: shutting down");
+        scheduler.shutdown();
+        boolean idle = false;
+        try {
+            idle = scheduler.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+            if (!idle) {
+                log.warn("cycle did not finish in " + SHUTDOWN_TIMEOUT + "s, interrupting it");
+                scheduler.shutdownNow();
+                idle = scheduler.awaitTermination(30, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        checkpoint.save(idle);
+        log.info("daemon: stopped after " + cycles + " cycles");
+        stopped.countDown();
+    }
+}
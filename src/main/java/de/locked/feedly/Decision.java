@@ -0,0 +1,20 @@
+package de.locked.feedly;
+
+// a doc that scored at least the threshold for a tag
+class Decision {
+
+    final Doc doc;
+    final String tag;
+    final double p;
+
+    Decision(Doc doc, String tag, double p) {
+        this.doc = doc;
+        this.tag = tag;
+        this.p = p;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.2f: %s: %s", p, tag, doc.title);
+    }
+}
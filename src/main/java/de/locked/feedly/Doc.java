@@ -0,0 +1,49 @@
+package de.locked.feedly;
+
+import de.locked.feedly.feedly.Entry;
+
+// compact, tokenized form of an Entry: just what training and recommendation need
+class Doc {
+
+    final String id;
+    final String title;
+    final long updated;
+    final boolean unread;
+    final String[] tags; // tag labels, may contain null for system tags
+    final int[] tokens;
+
+    Doc(Entry e, int[] tokens) {
+        this.id = e.id;
+        this.title = e.title;
+        this.updated = e.updated;
+        this.unread = e.unread;
+        this.tags = new String[e.tags == null ? 0 : e.tags.length];
+        for (int i = 0; i < tags.length; i++) {
+            tags[i] = e.tags[i].label;
+        }
+        this.tokens = tokens;
+    }
+
+    boolean hasTag(String tag) {
+        for (String t : tags) {
+            if (tag.equals(t)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean untagged() {
+        for (String t : tags) {
+            if (t != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "Doc{" + "id=" + id + ", title=" + title + ", unread=" + unread + ", tokens=" + tokens.length + '}';
+    }
+}
@@ -0,0 +1,509 @@
+package de.locked.feedly;
+
+import com.google.gson.Gson;
+import de.locked.feedly.feedly.Entry;
+import de.locked.feedly.feedly.Tag;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+// Local copy of all entries that survives between runs.
+// Entries are appended as deflated JSON records to a few large segment files,
+// an in-memory index maps the entry id to the newest record. Reads go through
+// memory maps, compact() rewrites the live records and drops superseded ones.
+// A record with a bad checksum is logged and skipped, a torn record at the end of a
+// segment is cut off when the store is opened.
+//
+// record: int idLength, int dataLength, int crc32(data), id (UTF-8), data
+class EntryStore {
+
+    private static final Logger log = LogManager.getLogger(EntryStore.class);
+    private static final int HEADER = 12;
+    private static final long SEGMENT_SIZE = Long.getLong("feedly.segmentSize", 64 << 20);
+    private static final double MAX_GARBAGE = 0.5;
+    private static final long REMAP = 8 << 20;
+
+    private final Gson gson = new Gson();
+    private final File dir;
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<String, Long> index = new HashMap<>(); // id -> segment << 32 | offset
+    private long liveBytes = 0;
+    private long totalBytes = 0;
+    private Set<String> changed = new LinkedHashSet<>(); // ids put since the last changes()
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private final byte[] buffer = new byte[64 << 10];
+
+    private static class Segment {
+
+        final int number;
+        final File file;
+        FileChannel channel; // open for appends, only the last segment
+        FileChannel reader; // for the part of the file behind the map
+        MappedByteBuffer map;
+        long size;
+
+        Segment(int number, File file) {
+            this.number = number;
+            this.file = file;
+            this.size = file.length();
+        }
+
+        // The length bytes at pos. Appends do not remap the segment: records behind the
+        // map are read through the channel, the map is only renewed once that unmapped
+        // tail is larger than REMAP.
+        ByteBuffer at(long pos, int length) throws IOException {
+            if (map == null || size - map.capacity() > REMAP) {
+                try (FileChannel ch = FileChannel.open(file.toPath(), READ)) {
+                    map = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                }
+            }
+            if (pos + length <= map.capacity()) {
+                ByteBuffer b = map.duplicate();
+                b.position((int) pos);
+                b.limit((int) pos + length);
+                return b.slice();
+            }
+            if (reader == null) {
+                reader = FileChannel.open(file.toPath(), READ);
+            }
+            ByteBuffer b = ByteBuffer.allocate(length);
+            while (b.hasRemaining()) {
+                if (reader.read(b, pos + b.position()) < 0) {
+                    throw new IOException("unexpected end of " + file);
+                }
+            }
+            b.flip();
+            return b;
+        }
+
+        void close() throws IOException {
+            if (channel != null) {
+                channel.force(false);
+                channel.close();
+                channel = null;
+            }
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+            map = null;
+        }
+    }
+
+    EntryStore(File dir) {
+        this.dir = dir;
+        dir.mkdirs();
+        try {
+            open();
+            migrate();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("cannot open entry store " + dir, ex);
+        }
+    }
+
+    private static String name(int number) {
+        return String.format("segment-%06d.seg", number);
+    }
+
+    private void open() throws IOException {
+        File[] files = dir.listFiles((d, n) -> n.startsWith("segment-") && n.endsWith(".seg"));
+        Arrays.sort(files);
+        for (File f : files) {
+            int number = Integer.parseInt(f.getName().substring(8, 14));
+            Segment s = new Segment(number, f);
+            segments.add(s);
+            scan(s);
+        }
+        log.debug(String.format("opened %d segments with %d entries, %.1f%% live",
+                segments.size(), index.size(), 100d * liveBytes / Math.max(1, totalBytes)));
+    }
+
+    // Rebuilds the index from the record headers, cuts off a torn record at the end.
+    // Only the last record is checked: a crash during the append can leave a complete
+    // header in front of data that never made it to the disk.
+    private void scan(Segment s) throws IOException {
+        long pos = 0;
+        while (pos + HEADER <= s.size) {
+            ByteBuffer b = s.at(pos, HEADER);
+            int idLength = b.getInt();
+            int dataLength = b.getInt();
+            long end = pos + HEADER + idLength + dataLength;
+            if (idLength <= 0 || dataLength < 0 || end > s.size
+                    || end == s.size && !intact(s.at(pos, (int) (end - pos)))) {
+                break;
+            }
+            indexRecord(id(s, pos, idLength), s.number, pos, end - pos);
+            pos = end;
+        }
+        if (pos < s.size) {
+            log.warn("truncating damaged segment " + s.file + " at " + pos);
+            try (FileChannel ch = FileChannel.open(s.file.toPath(), WRITE)) {
+                ch.truncate(pos);
+            }
+            s.size = pos;
+            s.map = null;
+        }
+    }
+
+    private void indexRecord(String id, int segment, long offset, long length) throws IOException {
+        Long old = index.put(id, ((long) segment << 32) | offset);
+        if (old != null) {
+            liveBytes -= recordLength(old);
+        }
+        liveBytes += length;
+        totalBytes += length;
+    }
+
+    private long recordLength(long location) throws IOException {
+        return recordLength(segment((int) (location >>> 32)), (int) location);
+    }
+
+    private static int recordLength(Segment s, long pos) throws IOException {
+        ByteBuffer b = s.at(pos, HEADER);
+        return HEADER + b.getInt() + b.getInt();
+    }
+
+    private static String id(Segment s, long pos, int idLength) throws IOException {
+        ByteBuffer b = s.at(pos + HEADER, idLength);
+        byte[] id = new byte[idLength];
+        b.get(id);
+        return new String(id, UTF_8);
+    }
+
+    private Segment segment(int number) {
+        for (Segment s : segments) {
+            if (s.number == number) {
+                return s;
+            }
+        }
+        throw new IllegalStateException("no segment " + number);
+    }
+
+    // imports the old one-file-per-entry layout
+    private void migrate() throws IOException {
+        File[] legacy = dir.listFiles((d, n) -> n.endsWith(".txt"));
+        if (legacy == null || legacy.length == 0) {
+            return;
+        }
+        log.info("migrating " + legacy.length + " entry files");
+        for (File f : legacy) {
+            Optional<Entry> e = Utils.toEntry(f);
+            if (e.isPresent()) {
+                append(e.get());
+            }
+        }
+        flush();
+        for (File f : legacy) {
+            f.delete();
+        }
+    }
+
+    synchronized Optional<Entry> get(String id) throws IOException {
+        Long location = index.get(id);
+        if (location == null) {
+            return Optional.empty();
+        }
+        Entry e = read(location);
+        if (e == null) {
+            drop(id, location);
+        }
+        return Optional.ofNullable(e);
+    }
+
+    // forgets a damaged record, the next put of the entry stores it again
+    private void drop(String id, long location) throws IOException {
+        log.warn("skipping damaged record of " + id + " in "
+                + segment((int) (location >>> 32)).file + " at " + (int) location);
+        index.remove(id);
+        liveBytes -= recordLength(location);
+    }
+
+    // stores the entry if it is new or its updated, unread or tags fields changed
+    synchronized boolean put(Entry entry) throws IOException {
+        Optional<Entry> old = get(entry.id);
+        if (old.isPresent() && !changed(old.get(), entry)) {
+            return false;
+        }
+        append(entry);
+        changed.add(entry.id);
+        return true;
+    }
+
+    // ids of the entries stored or changed since the last call
+    synchronized Set<String> changes() {
+        Set<String> ids = changed;
+        changed = new LinkedHashSet<>();
+        return ids;
+    }
+
+    static boolean changed(Entry a, Entry b) {
+        return a.updated != b.updated || a.unread != b.unread || !tagIds(a).equals(tagIds(b));
+    }
+
+    private static Set<String> tagIds(Entry e) {
+        Set<String> ids = new HashSet<>();
+        for (Tag t : Utils.toList(e.tags)) {
+            ids.add(t.id);
+        }
+        return ids;
+    }
+
+    private Segment active() throws IOException {
+        Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (last == null || last.size >= SEGMENT_SIZE) {
+            if (last != null) {
+                last.close();
+            }
+            int number = last == null ? 1 : last.number + 1;
+            last = new Segment(number, new File(dir, name(number)));
+            segments.add(last);
+        }
+        if (last.channel == null) {
+            last.channel = FileChannel.open(last.file.toPath(), CREATE, WRITE, APPEND);
+        }
+        return last;
+    }
+
+    private void append(Entry entry) throws IOException {
+        byte[] id = entry.id.getBytes(UTF_8);
+        byte[] data = deflate(gson.toJson(entry).getBytes(UTF_8));
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER + id.length + data.length);
+        record.putInt(id.length).putInt(data.length).putInt((int) crc.getValue()).put(id).put(data);
+        record.flip();
+
+        Segment s = active();
+        long offset = s.size;
+        while (record.hasRemaining()) {
+            s.channel.write(record);
+        }
+        s.size += record.capacity();
+        indexRecord(entry.id, s.number, offset, record.capacity());
+    }
+
+    private Entry read(long location) throws IOException {
+        Segment s = segment((int) (location >>> 32));
+        return decode(s.at((int) location, recordLength(s, (int) location)));
+    }
+
+    // the entry of the record or null if its checksum does not match
+    private Entry decode(ByteBuffer b) throws IOException {
+        if (!intact(b)) {
+            return null;
+        }
+        int idLength = b.getInt();
+        int dataLength = b.getInt();
+        b.position(b.position() + 4 + idLength);
+        byte[] data = new byte[dataLength];
+        b.get(data);
+        return gson.fromJson(new String(inflate(data), UTF_8), Entry.class);
+    }
+
+    private static boolean intact(ByteBuffer record) {
+        ByteBuffer b = record.duplicate();
+        int idLength = b.getInt();
+        int dataLength = b.getInt();
+        int crc = b.getInt();
+        b.position(b.position() + idLength);
+        b.limit(b.position() + dataLength);
+        CRC32 check = new CRC32();
+        check.update(b);
+        return (int) check.getValue() == crc;
+    }
+
+    private byte[] deflate(byte[] data) {
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 3);
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] inflate(byte[] data) throws IOException {
+        inflater.reset();
+        inflater.setInput(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 3);
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && inflater.needsInput()) {
+                    throw new IOException("truncated record in " + dir);
+                }
+                out.write(buffer, 0, n);
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException(ex);
+        }
+        return out.toByteArray();
+    }
+
+    int size() {
+        return index.size();
+    }
+
+    // all current entries, read sequentially segment by segment
+    Stream<Entry> entries() {
+        final List<Segment> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(segments);
+        }
+        Iterator<Entry> it = new Iterator<Entry>() {
+            int segment = 0;
+            long pos = 0;
+            Entry next;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    while (next == null && segment < snapshot.size()) {
+                        synchronized (EntryStore.this) {
+                            Segment s = snapshot.get(segment);
+                            if (pos + HEADER > s.size) {
+                                segment++;
+                                pos = 0;
+                                continue;
+                            }
+                            long location = ((long) s.number << 32) | pos;
+                            int length = recordLength(s, pos);
+                            String id = id(s, pos, s.at(pos, HEADER).getInt());
+                            if (Long.valueOf(location).equals(index.get(id))) {
+                                next = decode(s.at(pos, length));
+                                if (next == null) {
+                                    drop(id, location);
+                                }
+                            }
+                            pos += length;
+                        }
+                    }
+                    return next != null;
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+
+            @Override
+            public Entry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Entry e = next;
+                next = null;
+                return e;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliterator(it, index.size(), Spliterator.NONNULL), false);
+    }
+
+    synchronized void flush() throws IOException {
+        for (Segment s : segments) {
+            if (s.channel != null) {
+                s.channel.force(false);
+            }
+        }
+    }
+
+    // rewrites the live records if more than half of the store is superseded versions
+    synchronized void compact() throws IOException {
+        if (totalBytes == 0 || liveBytes >= totalBytes * (1 - MAX_GARBAGE)) {
+            return;
+        }
+        final long a = System.currentTimeMillis();
+        final long before = totalBytes;
+        List<Segment> old = new ArrayList<>(segments);
+        Map<String, Long> live = new HashMap<>(index);
+        for (Segment s : old) {
+            s.close();
+        }
+        // new segments are numbered after the old ones: after a crash the newer copies win
+        segments.clear();
+        index.clear();
+        liveBytes = totalBytes = 0;
+        segments.add(new Segment(old.get(old.size() - 1).number + 1,
+                new File(dir, name(old.get(old.size() - 1).number + 1))));
+
+        for (Segment s : old) {
+            long pos = 0;
+            while (pos + HEADER <= s.size) {
+                int length = recordLength(s, pos);
+                String key = id(s, pos, s.at(pos, HEADER).getInt());
+                ByteBuffer record = s.at(pos, length);
+                boolean current = Long.valueOf(((long) s.number << 32) | pos).equals(live.get(key));
+                if (current && !intact(record)) {
+                    log.warn("dropping damaged record of " + key + " in " + s.file + " at " + pos);
+                } else if (current) {
+                    Segment target = active();
+                    long offset = target.size;
+                    while (record.hasRemaining()) {
+                        target.channel.write(record);
+                    }
+                    target.size += length;
+                    indexRecord(key, target.number, offset, length);
+                }
+                pos += length;
+            }
+            s.map = null;
+        }
+        flush();
+        for (Segment s : old) {
+            s.file.delete();
+        }
+        log.info(String.format("compacted %d -> %d bytes in %.2fs",
+                before, totalBytes, (System.currentTimeMillis() - a) / 1000d));
+    }
+
+    synchronized void close() throws IOException {
+        for (Segment s : segments) {
+            s.close();
+        }
+    }
+
+    synchronized void clear() {
+        log.info("deleting " + dir);
+        for (Segment s : segments) {
+            try {
+                s.close();
+            } catch (IOException ex) {
+                log.warn("cannot close " + s.file, ex);
+            }
+            s.file.delete();
+        }
+        segments.clear();
+        index.clear();
+        changed.clear();
+        liveBytes = totalBytes = 0;
+    }
+}
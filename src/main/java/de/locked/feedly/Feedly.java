@@ -2,45 +2,72 @@ package de.locked.feedly;
 
 import com.google.common.base.Charsets;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import de.locked.feedly.feedly.Category;
 import de.locked.feedly.feedly.Entry;
+import de.locked.feedly.feedly.ReadMarkers;
 import de.locked.feedly.feedly.StreamContent;
+import de.locked.feedly.feedly.StreamIds;
 import de.locked.feedly.feedly.Tag;
+import de.locked.feedly.feedly.TagMarkers;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import javax.imageio.IIOException;
+import org.apache.http.HttpEntity;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.fluent.Request;
 import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.BasicResponseHandler;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.util.EntityUtils;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 
 public class Feedly {
 
     private static final Logger log = LogManager.getLogger(Feedly.class);
-    private final String base = "http://cloud.feedly.com/v3/";
+    // -Dfeedly.baseUrl=http://localhost:8080/v3/ points all calls to a FeedlyStandIn
+    static final String BASE_URL = System.getProperty("feedly.baseUrl", "http://cloud.feedly.com/v3/");
+    private static final Gson gson = new Gson();
+    private final String base;
     private final BasicHeader auth;
-    private static int requests = 0;
+    private final Transport transport;
 
     public Feedly(String accessToken) {
+        this(accessToken, Transport.SHARED);
+    }
+
+    Feedly(String accessToken, Transport transport) {
+        this(accessToken, transport, BASE_URL);
+    }
+
+    Feedly(String accessToken, Transport transport, String base) {
         auth = new BasicHeader("Authorization", accessToken);
+        this.transport = transport;
+        this.base = base.endsWith("/") ? base : base + "/";
     }
 
     public Category[] getCategories() throws IOException {
         String json = getAsString(base + "categories");
-        return new Gson().fromJson(json, Category[].class);
+        return gson.fromJson(json, Category[].class);
     }
 
     public Tag[] getTags() throws IOException {
         String json = getAsString(base + "tags");
-        return new Gson().fromJson(json, Tag[].class);
+        return gson.fromJson(json, Tag[].class);
     }
 
     // https://developer.feedly.com/v3/streams/
@@ -67,14 +94,124 @@ public class Feedly {
         return getStreamContents(uri);
     }
 
+    // only entries newer than the given timestamp (0 for all), resuming at continuation if not null
+    public StreamContent getStreamContents(String id, long newerThan, String continuation) throws IOException, URISyntaxException {
+        String url = base + "streams/contents?streamId=" + enc(id) + "&count=10000";
+        if (newerThan > 0) {
+            url += "&newerThan=" + newerThan;
+        }
+        if (continuation != null) {
+            url += "&continuation=" + enc(continuation);
+        }
+        return getStreamContents(new URI(url));
+    }
+
+    interface EntryHandler {
+
+        void accept(Entry entry) throws IOException;
+    }
+
+    // Streaming variant of getStreamContents: every item is handed to the handler as soon
+    // as it is parsed, so the page is never held in memory. Returns the continuation or null.
+    public String streamContents(String id, long newerThan, String continuation, EntryHandler handler) throws IOException, URISyntaxException {
+        String url = base + "streams/contents?streamId=" + enc(id) + "&count=10000";
+        if (newerThan > 0) {
+            url += "&newerThan=" + newerThan;
+        }
+        if (continuation != null) {
+            url += "&continuation=" + enc(continuation);
+        }
+        return transport.execute(Request.Get(new URI(url)).setHeader(auth), RequestScheduler.Priority.READ,
+                response -> {
+                    StatusLine status = response.getStatusLine();
+                    if (status.getStatusCode() >= 300) {
+                        throw new HttpResponseException(status.getStatusCode(), status.getReasonPhrase());
+                    }
+                    HttpEntity entity = response.getEntity();
+                    ContentType type = ContentType.getOrDefault(entity);
+                    Charset charset = type.getCharset() != null ? type.getCharset() : Charsets.UTF_8;
+                    try (JsonReader reader = new JsonReader(new InputStreamReader(entity.getContent(), charset))) {
+                        return readStream(reader, handler);
+                    }
+                });
+    }
+
+    // parse time includes waiting for the rest of the response, the handler's time does not
+    private String readStream(JsonReader reader, EntryHandler handler) throws IOException {
+        String next = null;
+        long parse = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("items") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    final long a = System.nanoTime();
+                    Entry entry = gson.fromJson(reader, Entry.class);
+                    parse += System.nanoTime() - a;
+                    handler.accept(entry);
+                }
+                reader.endArray();
+            } else if (name.equals("continuation") && reader.peek() == JsonToken.STRING) {
+                next = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        Metrics.RUN.time("phase", parse, "phase", "parse");
+        return next;
+    }
+
     public StreamContent getStreamContents(URI uri) throws IOException {
         String data = getAsString(uri);
-        return new Gson().fromJson(data, StreamContent.class);
+        return gson.fromJson(data, StreamContent.class);
+    }
+
+    // the ids of all entries of a stream, e.g. of a tag
+    public List<String> getAllStreamIds(String id) throws IOException {
+        List<String> ids = new ArrayList<>();
+        String continuation = null;
+        do {
+            String url = base + "streams/ids?streamId=" + enc(id) + "&count=10000";
+            if (continuation != null) {
+                url += "&continuation=" + enc(continuation);
+            }
+            StreamIds page = gson.fromJson(getAsString(url), StreamIds.class);
+            ids.addAll(Utils.toList(page.ids));
+            continuation = page.continuation;
+        } while (continuation != null);
+        return ids;
+    }
+
+    public ReadMarkers getReadMarkers(long newerThan) throws IOException {
+        String json = getAsString(base + "markers/reads?newerThan=" + newerThan);
+        return gson.fromJson(json, ReadMarkers.class);
+    }
+
+    public TagMarkers getTagMarkers(long newerThan) throws IOException {
+        String json = getAsString(base + "markers/tags?newerThan=" + newerThan);
+        return gson.fromJson(json, TagMarkers.class);
     }
 
     boolean tagEntry(Entry entry, Tag tag) throws IOException {
+        return tagEntry(entry.id, tag);
+    }
+
+    boolean tagEntry(String entryId, Tag tag) throws IOException {
+        JsonObject o = new JsonObject();
+        o.addProperty("entryId", entryId);
+        return exec(Request.Put(base + "tags/" + enc(tag.id)), o);
+    }
+
+    // https://developer.feedly.com/v3/tags/#tag-multiple-entries
+    boolean tagEntries(List<String> entryIds, Tag tag) throws IOException {
         JsonObject o = new JsonObject();
-        o.addProperty("entryId", entry.id);
+        JsonArray ids = new JsonArray();
+        for (String id : entryIds) {
+            ids.add(new JsonPrimitive(id));
+        }
+        o.add("entryIds", ids);
         return exec(Request.Put(base + "tags/" + enc(tag.id)), o);
     }
 
@@ -87,19 +224,28 @@ public class Feedly {
     }
 
     boolean markAsread(Entry entry) throws IOException {
-        return exec(Request.Post(base + "/markers"), new Marker(entry.id));
+        return markAsread(entry.id);
+    }
+
+    boolean markAsread(String entryId) throws IOException {
+        return exec(Request.Post(base + "markers"), new Marker(entryId));
+    }
+
+    boolean markAsread(List<String> entryIds) throws IOException {
+        return exec(Request.Post(base + "markers"), new Marker(entryIds.toArray(new String[entryIds.size()])));
     }
 
     private boolean exec(Request request, Object o) throws IOException {
-        String json = new Gson().toJson(o);
+        String json = gson.toJson(o);
         return exec(request.bodyString(json, ContentType.APPLICATION_JSON));
     }
 
+    // write-backs, after the reads of a sync
     private boolean exec(Request request) throws IOException {
-        requests++;
-        log.info("Request #" + requests + ", " + request.toString());
-        int status = request.setHeader(auth).execute()
-                .returnResponse().getStatusLine().getStatusCode();
+        int status = transport.execute(request.setHeader(auth), RequestScheduler.Priority.WRITE, response -> {
+            EntityUtils.consume(response.getEntity());
+            return response.getStatusLine().getStatusCode();
+        });
         return 200 == status;
     }
 
@@ -113,24 +259,11 @@ public class Feedly {
     }
     
     private String getAsString(URI urlPart) throws IOException {
-        requests++;
-        log.info("Request #" + requests + ", " + urlPart);
-        return Request.Get(urlPart).setHeader(auth).execute().returnContent().asString();
+        return transport.execute(Request.Get(urlPart).setHeader(auth), RequestScheduler.Priority.READ,
+                new BasicResponseHandler());
     }
 
     private String enc(String s) throws UnsupportedEncodingException {
         return URLEncoder.encode(s, Charsets.UTF_8.name());
     }
 }
-
-// https://developer.feedly.com/v3/markers/#mark-one-or-multiple-articles-as-read
-class Marker {
-
-    String type = "entries";
-    String action = "markAsRead";
-    String[] entryIds;
-
-    public Marker(String... ids) {
-        entryIds = ids;
-    }
-}
@@ -0,0 +1,142 @@
+package de.locked.feedly;
+
+import de.locked.feedly.feedly.Category;
+import de.locked.feedly.feedly.Entry;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+// Downloads several categories in parallel. Network threads only parse and queue,
+// a single writer thread persists the entries, so the next page is already being
+// fetched while the current one is written. Sync state is saved by the writer
+// once all entries of a page are stored, which keeps resuming safe.
+// Request rate is bounded by the shared RequestScheduler in Transport.
+class Fetcher {
+
+    private static final Logger log = LogManager.getLogger(Fetcher.class);
+    static final int WORKERS = Integer.getInteger("feedly.fetchWorkers", 3);
+    private static final int QUEUE = 1000;
+
+    private interface Task {
+
+        void run() throws IOException;
+    }
+    private static final Task STOP = () -> {
+    };
+
+    private final Feedly feedly;
+    private final EntryStore store;
+    private final SyncState state;
+    private final int workers;
+    private final BlockingQueue<Task> queue = new ArrayBlockingQueue<>(QUEUE);
+    private final AtomicReference<IOException> writeError = new AtomicReference<>();
+
+    Fetcher(Feedly feedly, EntryStore store, SyncState state, int workers) {
+        this.feedly = feedly;
+        this.store = store;
+        this.state = state;
+        this.workers = workers;
+    }
+
+    void fetch(Category[] categories) throws Exception {
+        Thread writer = new Thread(this::write, "entry-writer");
+        writer.start();
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Category cat : categories) {
+                futures.add(pool.submit(() -> {
+                    fetch(cat);
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException ex) {
+                    throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            put(STOP);
+            writer.join();
+        }
+        if (writeError.get() != null) {
+            throw writeError.get();
+        }
+    }
+
+    private void fetch(Category cat) throws Exception {
+        SyncState.Cursor cursor = state.get(cat.id);
+        log.info("getting entries for category: " + cat.label + ", " + cursor);
+        String continuation = cursor.continuation;
+        do {
+            int[] count = {0};
+            continuation = feedly.streamContents(cat.id, cursor.newerThan, continuation, entry -> {
+                count[0]++;
+                put(() -> save(entry, cursor));
+            });
+            final String next = continuation;
+            log.debug(cat.label + ": " + count[0] + " entries, continuation: " + next);
+            put(() -> {
+                cursor.continuation = next;
+                store.flush();
+                state.save();
+            });
+        } while (continuation != null && writeError.get() == null);
+        put(() -> {
+            cursor.newerThan = Math.max(cursor.newerThan, cursor.pendingNewerThan);
+            state.save();
+        });
+    }
+
+    private void save(Entry entry, SyncState.Cursor cursor) throws IOException {
+        cursor.pendingNewerThan = Math.max(cursor.pendingNewerThan, entry.crawled);
+        store.put(entry);
+        Metrics.RUN.count("entries_fetched", 1);
+    }
+
+    private void put(Task task) throws IOException {
+        try {
+            queue.put(task);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", ex);
+        }
+    }
+
+    private void write() {
+        while (true) {
+            Task task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            if (task == STOP) {
+                return;
+            }
+            if (writeError.get() == null) { // after a failure only drain the queue
+                try {
+                    task.run();
+                } catch (IOException ex) {
+                    log.error("cannot store entries", ex);
+                    writeError.set(ex);
+                } catch (RuntimeException ex) { // the writer must go on draining or the producers block
+                    log.error("cannot store entries", ex);
+                    writeError.set(new IOException(ex));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package de.locked.feedly;
+
+import com.google.common.base.Charsets;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import de.locked.feedly.feedly.Category;
+import de.locked.feedly.feedly.Entry;
+import de.locked.feedly.feedly.Tag;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+// What the Feedly API serves for an account: categories, tags and entries. Written by the
+// record option of App, served offline by FeedlyStandIn in src/test.
+class Fixtures {
+
+    private static final Logger log = LogManager.getLogger(Fixtures.class);
+    private static final Gson gson = new Gson();
+    static final String DIR = System.getProperty("feedly.standIn.fixtures", "fixtures");
+
+    List<Category> categories = new ArrayList<>();
+    List<Tag> tags = new ArrayList<>();
+    List<Entry> entries = new ArrayList<>();
+
+    static Fixtures load(File dir) throws IOException {
+        Fixtures f = new Fixtures();
+        f.categories.addAll(Arrays.asList(gson.fromJson(read(new File(dir, "categories.json")), Category[].class)));
+        f.tags.addAll(Arrays.asList(gson.fromJson(read(new File(dir, "tags.json")), Tag[].class)));
+        try (JsonReader reader = new JsonReader(new InputStreamReader(new FileInputStream(new File(dir, "entries.json")), Charsets.UTF_8))) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                f.entries.add(gson.fromJson(reader, Entry.class));
+            }
+            reader.endArray();
+        }
+        return f;
+    }
+
+    void save(File dir) throws IOException {
+        dir.mkdirs();
+        Files.write(new File(dir, "categories.json").toPath(), gson.toJson(categories).getBytes(Charsets.UTF_8));
+        Files.write(new File(dir, "tags.json").toPath(), gson.toJson(tags).getBytes(Charsets.UTF_8));
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(new FileOutputStream(new File(dir, "entries.json")), Charsets.UTF_8))) {
+            writer.beginArray();
+            for (Entry e : entries) {
+                gson.toJson(e, Entry.class, writer);
+            }
+            writer.endArray();
+        }
+        log.info("recorded " + categories.size() + " categories, " + tags.size() + " tags and "
+                + entries.size() + " entries to " + dir);
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), Charsets.UTF_8);
+    }
+}
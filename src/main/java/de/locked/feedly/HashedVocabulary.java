@@ -0,0 +1,131 @@
+package de.locked.feedly;
+
+import java.util.Arrays;
+
+// The hashing trick: a word's id is its hash modulo a fixed number of buckets, so the
+// count tables never grow, whatever comes in. Colliding words share their counts.
+// Selected with -Dfeedly.hashedModelMB, the number of buckets is the largest power of two
+// whose tables (see bytesPerBucket) fit the budget.
+// With -Dfeedly.prefilterMinDoc=k a count-min sketch of the document frequencies drops
+// the words seen in fewer than k docs so far before they reach a bucket, like the minDoc
+// filter of Bayes.reduce does for the exact vocabulary. The first k - 1 docs of a word
+// lose it, the sketch may overestimate, never underestimate.
+class HashedVocabulary extends Vocabulary {
+
+    static final long BUDGET = Long.getLong("feedly.hashedModelMB", 0) << 20; // 0: exact vocabulary
+    static final int PREFILTER = Integer.getInteger("feedly.prefilterMinDoc", 0); // 0: off
+    private static final int DEPTH = 4;
+
+    private final int mask;
+    private final int minDoc;
+    private final int[] sketch; // DEPTH rows of doc frequencies, null without prefilter
+
+    HashedVocabulary(int buckets, int minDoc) {
+        if (Integer.bitCount(buckets) != 1) {
+            throw new IllegalArgumentException("buckets must be a power of two: " + buckets);
+        }
+        this.mask = buckets - 1;
+        this.minDoc = minDoc;
+        this.sketch = minDoc > 1 ? new int[DEPTH * buckets] : null;
+    }
+
+    // largest power of two whose tables for this many tags fit into the budget
+    static int buckets(long budget, int tags, boolean prefilter) {
+        long n = Long.highestOneBit(Math.max(1, budget / bytesPerBucket(tags, prefilter)));
+        return (int) Math.min(n, 1 << 30);
+    }
+
+    // MultiBayes: terms and docs of the read counts and of two Counts per tag,
+    // the seen and distinct scratch arrays and a keep flag per tag; plus the sketch rows
+    static long bytesPerBucket(int tags, boolean prefilter) {
+        return 8L * (1 + 2 * tags) + 8 + tags + (prefilter ? 4 * DEPTH : 0);
+    }
+
+    @Override
+    int id(CharSequence word) {
+        return bucket(hash(word));
+    }
+
+    @Override
+    int find(CharSequence word) {
+        return id(word);
+    }
+
+    @Override
+    String word(int id) {
+        return "#" + id;
+    }
+
+    @Override
+    int size() {
+        return mask + 1;
+    }
+
+    boolean prefilters() {
+        return sketch != null;
+    }
+
+    int bucket(long hash) {
+        return (int) (hash >>> 32) & mask;
+    }
+
+    // FNV-1a over the chars, finished with the murmur3 mixer
+    static long hash(CharSequence s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb3fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // counts the distinct words of a doc in the sketch, then removes the rare ones
+    // from its ids (parallel to hashes) in place. Returns the new length.
+    synchronized int filter(long[] hashes, int[] ids, int length) {
+        long[] distinct = Arrays.copyOf(hashes, length);
+        Arrays.sort(distinct);
+        for (int i = 0; i < length; i++) {
+            if (i == 0 || distinct[i] != distinct[i - 1]) {
+                add(distinct[i]);
+            }
+        }
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            if (estimate(hashes[i]) >= minDoc) {
+                ids[n++] = ids[i];
+            }
+        }
+        return n;
+    }
+
+    // conservative update: only the rows at the minimum grow
+    private void add(long hash) {
+        int min = estimate(hash);
+        for (int row = 0; row < DEPTH; row++) {
+            int i = cell(hash, row);
+            if (sketch[i] == min) {
+                sketch[i]++;
+            }
+        }
+    }
+
+    private int estimate(long hash) {
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            min = Math.min(min, sketch[cell(hash, row)]);
+        }
+        return min;
+    }
+
+    // double hashing from the two halves of the hash
+    private int cell(long hash, int row) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        return row * (mask + 1) + ((h1 + row * h2) & mask);
+    }
+}
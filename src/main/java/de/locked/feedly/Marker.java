@@ -0,0 +1,13 @@
+package de.locked.feedly;
+
+// https://developer.feedly.com/v3/markers/#mark-one-or-multiple-articles-as-read
+class Marker {
+
+    String type = "entries";
+    String action = "markAsRead";
+    String[] entryIds;
+
+    public Marker(String... ids) {
+        entryIds = ids;
+    }
+}
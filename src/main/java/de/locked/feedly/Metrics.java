@@ -0,0 +1,309 @@
+package de.locked.feedly;
+
+import com.google.common.base.Charsets;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+// Counters, gauges, phase timers and latency histograms of one run. At the end of the
+// run they are written to metrics.json and, in the Prometheus text format, to
+// metrics.prom (e.g. for the textfile collector of the node exporter), see
+// -Dfeedly.metricsDir. A series is a name plus label pairs, all updates are thread safe.
+class Metrics {
+
+    private static final Logger log = LogManager.getLogger(Metrics.class);
+    static final String DIR = System.getProperty("feedly.metricsDir", ".");
+    private static final String PREFIX = "feedly_";
+    private static final double[] BUCKETS = {.005, .01, .025, .05, .1, .25, .5, 1, 2.5, 5, 10, 30, 60}; // seconds
+
+    static final Metrics RUN = new Metrics();
+
+    private static class Series {
+
+        final String name;
+        final Map<String, String> labels = new LinkedHashMap<>();
+
+        Series(String name, String... labels) {
+            this.name = name;
+            for (int i = 0; i + 1 < labels.length; i += 2) {
+                this.labels.put(labels[i], labels[i + 1]);
+            }
+        }
+    }
+
+    private static class Counter extends Series {
+
+        final LongAdder value = new LongAdder();
+
+        Counter(String name, String... labels) {
+            super(name, labels);
+        }
+    }
+
+    private static class Gauge extends Series {
+
+        volatile double value;
+
+        Gauge(String name, String... labels) {
+            super(name, labels);
+        }
+    }
+
+    private static class Timer extends Series {
+
+        final LongAdder count = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Timer(String name, String... labels) {
+            super(name, labels);
+        }
+    }
+
+    private static class Histogram extends Series {
+
+        final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1]; // the last one is +Inf
+        final LongAdder count = new LongAdder();
+        final DoubleAdder sum = new DoubleAdder();
+
+        Histogram(String name, String... labels) {
+            super(name, labels);
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+    }
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private volatile long started = System.currentTimeMillis();
+
+    void count(String name, long n, String... labels) {
+        counters.computeIfAbsent(key(name, labels), k -> new Counter(name, labels)).value.add(n);
+    }
+
+    void gauge(String name, double value, String... labels) {
+        gauges.computeIfAbsent(key(name, labels), k -> new Gauge(name, labels)).value = value;
+    }
+
+    // one more occurrence of a phase that took the given time
+    void time(String name, long nanos, String... labels) {
+        Timer t = timers.computeIfAbsent(key(name, labels), k -> new Timer(name, labels));
+        t.count.increment();
+        t.nanos.add(nanos);
+        t.max.accumulate(nanos);
+    }
+
+    void observe(String name, double seconds, String... labels) {
+        Histogram h = histograms.computeIfAbsent(key(name, labels), k -> new Histogram(name, labels));
+        int i = 0;
+        while (i < BUCKETS.length && seconds > BUCKETS[i]) {
+            i++;
+        }
+        h.buckets[i].increment();
+        h.count.increment();
+        h.sum.add(seconds);
+    }
+
+    long getCount(String name, String... labels) {
+        Counter c = counters.get(key(name, labels));
+        return c == null ? 0 : c.value.sum();
+    }
+
+    // starts the next run
+    void clear() {
+        counters.clear();
+        gauges.clear();
+        timers.clear();
+        histograms.clear();
+        started = System.currentTimeMillis();
+    }
+
+    void write() {
+        write(new File(DIR));
+    }
+
+    // replaces both files atomically, a scraper never sees half a file
+    void write(File dir) {
+        try {
+            dir.mkdirs();
+            write(new File(dir, "metrics.json"), json());
+            write(new File(dir, "metrics.prom"), prometheus());
+            log.info("metrics written to " + dir);
+        } catch (IOException ex) {
+            log.warn("cannot write metrics to " + dir, ex);
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), content.getBytes(Charsets.UTF_8));
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    String json() {
+        JsonObject o = new JsonObject();
+        o.addProperty("started", started);
+        o.addProperty("finished", System.currentTimeMillis());
+        JsonArray a = new JsonArray();
+        for (Counter c : sorted(counters)) {
+            JsonObject s = series(c);
+            s.addProperty("value", c.value.sum());
+            a.add(s);
+        }
+        o.add("counters", a);
+        a = new JsonArray();
+        for (Gauge g : sorted(gauges)) {
+            JsonObject s = series(g);
+            s.addProperty("value", g.value);
+            a.add(s);
+        }
+        o.add("gauges", a);
+        a = new JsonArray();
+        for (Timer t : sorted(timers)) {
+            JsonObject s = series(t);
+            s.addProperty("count", t.count.sum());
+            s.addProperty("seconds", t.nanos.sum() / 1e9);
+            s.addProperty("maxSeconds", t.max.get() / 1e9);
+            a.add(s);
+        }
+        o.add("timers", a);
+        a = new JsonArray();
+        for (Histogram h : sorted(histograms)) {
+            JsonObject s = series(h);
+            s.addProperty("count", h.count.sum());
+            s.addProperty("sum", h.sum.sum());
+            JsonObject buckets = new JsonObject();
+            long cumulative = 0;
+            for (int i = 0; i < h.buckets.length; i++) {
+                cumulative += h.buckets[i].sum();
+                buckets.addProperty(le(i), cumulative);
+            }
+            s.add("buckets", buckets);
+            a.add(s);
+        }
+        o.add("histograms", a);
+        return new GsonBuilder().setPrettyPrinting().create().toJson(o);
+    }
+
+    String prometheus() {
+        StringBuilder sb = new StringBuilder();
+        String type = null;
+        for (Counter c : sorted(counters)) {
+            type = type(sb, type, c.name + "_total", "counter");
+            sample(sb, c.name + "_total", c, null, c.value.sum());
+        }
+        for (Gauge g : sorted(gauges)) {
+            type = type(sb, type, g.name, "gauge");
+            sample(sb, g.name, g, null, g.value);
+        }
+        for (Timer t : sorted(timers)) {
+            type = type(sb, type, t.name + "_seconds", "summary");
+            sample(sb, t.name + "_seconds_count", t, null, t.count.sum());
+            sample(sb, t.name + "_seconds_sum", t, null, t.nanos.sum() / 1e9);
+        }
+        for (Timer t : sorted(timers)) {
+            type = type(sb, type, t.name + "_seconds_max", "gauge");
+            sample(sb, t.name + "_seconds_max", t, null, t.max.get() / 1e9);
+        }
+        for (Histogram h : sorted(histograms)) {
+            type = type(sb, type, h.name + "_seconds", "histogram");
+            long cumulative = 0;
+            for (int i = 0; i < h.buckets.length; i++) {
+                cumulative += h.buckets[i].sum();
+                sample(sb, h.name + "_seconds_bucket", h, le(i), cumulative);
+            }
+            sample(sb, h.name + "_seconds_count", h, null, h.count.sum());
+            sample(sb, h.name + "_seconds_sum", h, null, h.sum.sum());
+        }
+        type(sb, type, "run_timestamp_seconds", "gauge");
+        sb.append(PREFIX).append("run_timestamp_seconds ").append(started / 1000).append('\n');
+        return sb.toString();
+    }
+
+    // the TYPE line of a metric family, once before its first sample
+    private static String type(StringBuilder sb, String last, String family, String type) {
+        if (!family.equals(last)) {
+            sb.append("# TYPE ").append(PREFIX).append(family).append(' ').append(type).append('\n');
+        }
+        return family;
+    }
+
+    private static void sample(StringBuilder sb, String name, Series s, String le, double value) {
+        sb.append(PREFIX).append(name);
+        if (!s.labels.isEmpty() || le != null) {
+            sb.append('{');
+            String sep = "";
+            for (Map.Entry<String, String> l : s.labels.entrySet()) {
+                sb.append(sep).append(l.getKey()).append("=\"").append(escape(l.getValue())).append('"');
+                sep = ",";
+            }
+            if (le != null) {
+                sb.append(sep).append("le=\"").append(le).append('"');
+            }
+            sb.append('}');
+        }
+        sb.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            sb.append((long) value);
+        } else {
+            sb.append(String.format(Locale.ROOT, "%.6f", value));
+        }
+        sb.append('\n');
+    }
+
+    private static JsonObject series(Series s) {
+        JsonObject o = new JsonObject();
+        o.addProperty("name", s.name);
+        JsonObject labels = new JsonObject();
+        for (Map.Entry<String, String> l : s.labels.entrySet()) {
+            labels.addProperty(l.getKey(), l.getValue());
+        }
+        o.add("labels", labels);
+        return o;
+    }
+
+    private static String le(int bucket) {
+        return bucket < BUCKETS.length ? Double.toString(BUCKETS[bucket]) : "+Inf";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    // name{k="v",...}, also the sort order of the output
+    private static String key(String name, String... labels) {
+        StringBuilder sb = new StringBuilder(name).append('{');
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            sb.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append("\",");
+        }
+        return sb.append('}').toString();
+    }
+
+    private static <T extends Series> List<T> sorted(Map<String, T> series) {
+        List<String> keys = new ArrayList<>(series.keySet());
+        keys.sort(null);
+        List<T> sorted = new ArrayList<>(keys.size());
+        for (String k : keys) {
+            sorted.add(series.get(k));
+        }
+        return sorted;
+    }
+}
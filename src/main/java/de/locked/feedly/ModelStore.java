@@ -0,0 +1,293 @@
+package de.locked.feedly;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.mapdb.Atomic;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+
+// Keeps the vocabulary and the MultiBayes count tables between runs and
+// remembers what every doc contributed, so that a run only has to add or
+// take back the docs that changed since the last one.
+class ModelStore {
+
+    private static final Logger log = LogManager.getLogger(ModelStore.class);
+    private static final String READ = "\u0000read";
+
+    // what a doc was counted as in the stored tables
+    static class DocState implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        long updated;
+        boolean read;
+        String[] tags;
+
+        DocState(long updated, boolean read, String[] tags) {
+            this.updated = updated;
+            this.read = read;
+            this.tags = tags.clone();
+            Arrays.sort(this.tags); // independent of the order of the Feedly tags
+        }
+
+        boolean same(DocState o) {
+            return o != null && updated == o.updated && read == o.read && Arrays.equals(tags, o.tags);
+        }
+    }
+
+    private final DB db;
+    private final Map<Integer, String> words;
+    private final Map<String, Counts[]> counts; // tag -> {tagged, taggedRead}; READ -> {read}
+    private final Map<String, DocState> docs;
+    private final Map<String, byte[]> tokens; // doc id -> tokens as counted, see pack
+    private final Map<String, Long> versions; // tag -> model version of its probabilities
+    private final Atomic.Long version; // the latest model version
+    private final Vocabulary vocabulary;
+    private int storedWords;
+
+    ModelStore(File file, int tags) {
+        this(file, true, tags);
+    }
+
+    // Without closeOnJvmShutdown the owner closes the store, e.g. from its own shutdown hook.
+    // The tags only size the buckets of a new hashed model (see HashedVocabulary), a stored
+    // model built for another -Dfeedly.hashedModelMB is dropped and trained again.
+    ModelStore(File file, boolean closeOnJvmShutdown, int tags) {
+        file.getParentFile().mkdirs();
+        DBMaker<?> maker = DBMaker.newFileDB(file);
+        if (closeOnJvmShutdown) {
+            maker = maker.closeOnJvmShutdown();
+        }
+        db = maker.make();
+        words = db.getHashMap("words");
+        counts = db.getHashMap("counts");
+        docs = db.getHashMap("docs");
+        tokens = db.getHashMap("tokens");
+        versions = db.getHashMap("versions");
+        version = db.getAtomicLong("version");
+
+        Atomic.Long budget = db.getAtomicLong("hashedBudget");
+        Atomic.Integer buckets = db.getAtomicInteger("buckets");
+        if (budget.get() != HashedVocabulary.BUDGET) {
+            log.info("model mode changed, dropping the stored model");
+            words.clear();
+            counts.clear();
+            docs.clear();
+            tokens.clear();
+            versions.clear();
+            budget.set(HashedVocabulary.BUDGET);
+            buckets.set(HashedVocabulary.BUDGET > 0
+                    ? HashedVocabulary.buckets(HashedVocabulary.BUDGET, tags, HashedVocabulary.PREFILTER > 1) : 0);
+            db.commit();
+        }
+        if (buckets.get() > 0) {
+            vocabulary = new HashedVocabulary(buckets.get(), HashedVocabulary.PREFILTER);
+            log.info(String.format("model store: %d buckets (%.1fMB for %d tags), %d docs", buckets.get(),
+                    buckets.get() * HashedVocabulary.bytesPerBucket(tags, HashedVocabulary.PREFILTER > 1) / 1048576d,
+                    tags, docs.size()));
+        } else {
+            vocabulary = new Vocabulary();
+            storedWords = words.size();
+            for (int i = 0; i < storedWords; i++) {
+                vocabulary.id(words.get(i));
+            }
+            log.info("model store: " + storedWords + " words, " + docs.size() + " docs");
+        }
+    }
+
+    Vocabulary getVocabulary() {
+        return vocabulary;
+    }
+
+    // the stored tables for these tags, tags that are new start empty
+    MultiBayes load(List<String> tags) {
+        Counts[] read = counts.get(READ);
+        Counts[] tagged = new Counts[tags.size()];
+        Counts[] taggedRead = new Counts[tags.size()];
+        for (int t = 0; t < tags.size(); t++) {
+            Counts[] c = counts.get(tags.get(t));
+            if (c != null) {
+                tagged[t] = c[0];
+                taggedRead[t] = c[1];
+            }
+        }
+        return new MultiBayes(tags, vocabulary, read == null ? new Counts() : read[0], tagged, taggedRead);
+    }
+
+    // applies the differences between the corpus and the stored doc states
+    void update(MultiBayes model, Corpus corpus, ForkJoinPool pool) {
+        update(model, corpus.getDocs(), true, pool);
+    }
+
+    // Only the given docs, stored docs that are not among them are kept. For a model
+    // that is already in sync with the store and a list of the docs that changed since.
+    void update(MultiBayes model, Collection<Doc> changed, ForkJoinPool pool) {
+        update(model, changed, false, pool);
+    }
+
+    private void update(MultiBayes model, Collection<Doc> current, boolean complete, ForkJoinPool pool) {
+        final long a = System.currentTimeMillis();
+        List<MultiBayes.Delta> deltas = new ArrayList<>();
+        int added = 0, removed = 0;
+        Set<String> ids = new HashSet<>();
+        for (Doc doc : current) {
+            ids.add(doc.id);
+            DocState now = new DocState(doc.updated, !doc.unread, model.tagsOf(doc));
+            DocState old = docs.get(doc.id);
+            if (now.same(old)) {
+                continue;
+            }
+            if (old != null) {
+                deltas.add(model.delta(unpack(tokens.get(doc.id)), old.read, old.tags, -1));
+                docs.remove(doc.id);
+                tokens.remove(doc.id);
+                removed++;
+            }
+            if (now.read || now.tags.length > 0) {
+                deltas.add(model.delta(doc.tokens, now.read, now.tags, 1));
+                docs.put(doc.id, now);
+                tokens.put(doc.id, pack(doc.tokens));
+                added++;
+            }
+        }
+        if (complete) {
+            for (String id : new HashSet<>(docs.keySet())) {
+                if (!ids.contains(id)) {
+                    DocState old = docs.remove(id);
+                    deltas.add(model.delta(unpack(tokens.remove(id)), old.read, old.tags, -1));
+                    removed++;
+                }
+            }
+        }
+        model.apply(deltas, pool);
+        log.info(String.format("delta training: +%d -%d docs in %.2fs",
+                added, removed, (System.currentTimeMillis() - a) / 1000d));
+    }
+
+    // Taking a doc back only needs how often it had every word, not the order of its tokens:
+    // the distinct ids in ascending order and their counts, as varints of the id gaps and counts.
+    static byte[] pack(int[] tokens) {
+        int[] sorted = tokens.clone();
+        Arrays.sort(sorted);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(sorted.length);
+        int previous = 0;
+        for (int i = 0; i < sorted.length;) {
+            int j = i;
+            while (j < sorted.length && sorted[j] == sorted[i]) {
+                j++;
+            }
+            varint(out, sorted[i] - previous);
+            varint(out, j - i);
+            previous = sorted[i];
+            i = j;
+        }
+        return out.toByteArray();
+    }
+
+    // the tokens of pack in ascending order
+    static int[] unpack(byte[] packed) {
+        int[] tokens = new int[packed.length];
+        int n = 0, word = 0;
+        for (int[] pos = {0}; pos[0] < packed.length;) {
+            word += varint(packed, pos);
+            int count = varint(packed, pos);
+            if (n + count > tokens.length) {
+                tokens = Arrays.copyOf(tokens, Math.max(n + count, tokens.length * 2));
+            }
+            Arrays.fill(tokens, n, n + count, word);
+            n += count;
+        }
+        return Arrays.copyOf(tokens, n);
+    }
+
+    private static void varint(ByteArrayOutputStream out, int v) {
+        while ((v & ~0x7f) != 0) {
+            out.write((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    private static int varint(byte[] in, int[] pos) {
+        int v = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = in[pos[0]++];
+            v |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return v;
+            }
+        }
+    }
+
+    // Changes with every save that changed the probabilities of the tag, see MultiBayes.isChanged.
+    // Versions are never reused, not even for a tag that was deleted and created again.
+    long getVersion(String tag) {
+        Long v = versions.get(tag);
+        return v == null ? 0 : v;
+    }
+
+    // the latest version of any tag
+    long getVersion() {
+        return version.get();
+    }
+
+    ScoreCache getScores(BayesCfg cfg) {
+        return new ScoreCache(db, cfg.toString());
+    }
+
+    // writes new words and changed tables and versions, drops tables of tags that are gone
+    void save(MultiBayes model) {
+        if (!(vocabulary instanceof HashedVocabulary)) {
+            for (int i = storedWords; i < vocabulary.size(); i++) {
+                words.put(i, vocabulary.word(i));
+            }
+            storedWords = vocabulary.size();
+        }
+
+        Set<String> labels = new HashSet<>();
+        boolean changed = false;
+        for (int t = 0; t < model.size(); t++) {
+            String tag = model.getName(t);
+            labels.add(tag);
+            if (model.isDirty(t) || !counts.containsKey(tag)) {
+                counts.put(tag, new Counts[]{model.getTagged(t), model.getTaggedRead(t)});
+            }
+            if (model.isChanged(t) || !versions.containsKey(tag)) {
+                versions.put(tag, version.get() + 1);
+                changed = true;
+            }
+        }
+        if (changed) {
+            version.incrementAndGet();
+        }
+        counts.put(READ, new Counts[]{model.getRead()});
+        counts.keySet().removeIf(k -> !k.equals(READ) && !labels.contains(k));
+        versions.keySet().removeIf(k -> !labels.contains(k));
+        db.commit();
+        model.saved();
+    }
+
+    // keeps what was changed since the last save, e.g. the score cache
+    void commit() {
+        db.commit();
+    }
+
+    // drops what was changed since the last save, e.g. after a failed daemon cycle
+    void rollback() {
+        db.rollback();
+    }
+
+    void close() {
+        db.close();
+    }
+}
@@ -0,0 +1,381 @@
+package de.locked.feedly;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+// One classifier for all tags, trained in a single pass over the corpus.
+// For a tag T the positive class is every doc tagged T and the negative class
+// is every read doc that is not tagged T, exactly like a per-tag Bayes.
+// The negative class is not stored per tag: counts over all read docs are
+// shared and the read docs tagged T are subtracted on the fly.
+// Docs can be removed again, so the counts can be kept up to date by deltas.
+class MultiBayes {
+
+    private static final Logger log = LogManager.getLogger(MultiBayes.class);
+    private static final int CHUNK = 512; // deltas per task at least, for counting into tables of its own
+
+    private final String[] tags;
+    private final Vocabulary vocabulary;
+
+    private final Counts read; // all read docs
+    private final Counts[] tagged; // per tag: docs tagged T
+    private final Counts[] taggedRead; // per tag: read docs tagged T
+    private final boolean[] dirty; // per tag: changed since construction
+    private boolean readDirty; // the shared read counts changed since construction
+    private final long[] trainNanos;
+    private final int[] known; // per tag: words seen by its classifier, at the last reduce
+    private final int[] kept; // per tag: words left by the last reduce
+
+    private boolean[][] keep;
+    private int size = 0;
+
+    // scratch space, reused between docs
+    private int[] seen = new int[0];
+    private int stamp = 0;
+    private int[] distinct = new int[0];
+    private final TopWords[] top;
+
+    MultiBayes(List<String> tags, Vocabulary vocabulary) {
+        this(tags, vocabulary, new Counts(), new Counts[tags.size()], new Counts[tags.size()]);
+    }
+
+    // missing per tag counts start empty
+    MultiBayes(List<String> tags, Vocabulary vocabulary, Counts read, Counts[] tagged, Counts[] taggedRead) {
+        this.tags = tags.toArray(new String[tags.size()]);
+        this.vocabulary = vocabulary;
+        int n = this.tags.length;
+        this.read = read;
+        this.tagged = tagged;
+        this.taggedRead = taggedRead;
+        dirty = new boolean[n];
+        trainNanos = new long[n];
+        known = new int[n];
+        kept = new int[n];
+        keep = new boolean[n][0];
+        top = new TopWords[n];
+        for (int t = 0; t < n; t++) {
+            if (tagged[t] == null || taggedRead[t] == null) {
+                tagged[t] = new Counts();
+                taggedRead[t] = new Counts();
+            }
+            top[t] = new TopWords(Bayes.TOP_X_WORDS);
+        }
+    }
+
+    int size() {
+        return tags.length;
+    }
+
+    String getName(int tag) {
+        return tags[tag];
+    }
+
+    boolean hasTags(List<String> labels) {
+        return Arrays.asList(tags).equals(labels);
+    }
+
+    Counts getRead() {
+        return read;
+    }
+
+    Counts getTagged(int tag) {
+        return tagged[tag];
+    }
+
+    Counts getTaggedRead(int tag) {
+        return taggedRead[tag];
+    }
+
+    boolean isDirty(int tag) {
+        return dirty[tag];
+    }
+
+    // the probabilities of the tag may have changed: its own counts or the shared read counts
+    boolean isChanged(int tag) {
+        return dirty[tag] || readDirty;
+    }
+
+    // the tables are stored, see ModelStore.save
+    void saved() {
+        Arrays.fill(dirty, false);
+        readDirty = false;
+    }
+
+    private void ensureCapacity(int words) {
+        if (words <= size) {
+            return;
+        }
+        int cap = max(words, size * 3 / 2 + 16);
+        for (int t = 0; t < tags.length; t++) {
+            tagged[t].ensureCapacity(cap);
+            taggedRead[t].ensureCapacity(cap);
+        }
+        read.ensureCapacity(cap);
+        seen = Arrays.copyOf(seen, cap);
+        distinct = Arrays.copyOf(distinct, cap);
+        size = cap;
+    }
+
+    void train(Corpus corpus) {
+        List<Delta> deltas = new ArrayList<>();
+        corpus.docs().forEach(d -> deltas.add(delta(d.tokens, !d.unread, tagsOf(d), 1)));
+        apply(deltas, null);
+        log.debug("trained " + tags.length + " tags on " + vocabulary.size() + " words");
+    }
+
+    // the labels of this model that the doc is tagged with, in model order
+    String[] tagsOf(Doc doc) {
+        List<String> labels = new ArrayList<>();
+        for (String tag : tags) {
+            if (doc.hasTag(tag)) {
+                labels.add(tag);
+            }
+        }
+        return labels.toArray(new String[labels.size()]);
+    }
+
+    // one doc to add (sign 1) or to take back (sign -1)
+    static class Delta {
+
+        final int[] tokens;
+        final int[] distinct;
+        final boolean read;
+        final String[] labels;
+        final int sign;
+
+        private Delta(int[] tokens, int[] distinct, boolean read, String[] labels, int sign) {
+            this.tokens = tokens;
+            this.distinct = distinct;
+            this.read = read;
+            this.labels = labels;
+            this.sign = sign;
+        }
+    }
+
+    Delta delta(int[] tokens, boolean isRead, String[] labels, int sign) {
+        return new Delta(tokens, distinct(tokens), isRead, labels, sign);
+    }
+
+    // the distinct tokens in order of their first occurrence, not thread safe
+    int[] distinct(int[] tokens) {
+        ensureCapacity(vocabulary.size());
+        stamp++;
+        int n = 0;
+        for (int w : tokens) {
+            if (seen[w] != stamp) {
+                seen[w] = stamp;
+                distinct[n++] = w;
+            }
+        }
+        return Arrays.copyOf(distinct, n);
+    }
+
+    // sign 1 adds the doc, -1 takes back an earlier add with the same arguments
+    // labels that are not part of this model are ignored
+    void add(int[] tokens, boolean isRead, String[] labels, int sign) {
+        apply(Collections.singletonList(delta(tokens, isRead, labels, sign)), null);
+    }
+
+    // Applies the deltas. With a pool the deltas are split into chunks, every chunk is
+    // counted by its own task into a partial model, and the partial tables are added to
+    // the tables of this model, one task per table. Counts are integer sums, so the result
+    // is the same as counting sequentially. Few deltas, and hashed models whose tables
+    // must stay inside their budget, are counted by one task per table instead: the shared
+    // read counts and every tag are updated by separate tasks that never touch the same Counts.
+    void apply(List<Delta> deltas, ForkJoinPool pool) {
+        ensureCapacity(vocabulary.size());
+        if (pool == null) {
+            for (int t = -1; t < tags.length; t++) {
+                apply(deltas, t);
+            }
+            return;
+        }
+        int chunks = Math.min(pool.getParallelism(), deltas.size() / CHUNK);
+        try {
+            if (chunks < 2 || vocabulary instanceof HashedVocabulary) {
+                pool.submit(() -> IntStream.range(-1, tags.length).parallel()
+                        .forEach(t -> apply(deltas, t))).get();
+            } else {
+                merge(pool.submit(() -> IntStream.range(0, chunks).parallel()
+                        .mapToObj(c -> partial(deltas.subList(deltas.size() * c / chunks, deltas.size() * (c + 1) / chunks)))
+                        .collect(Collectors.toList())).get(), pool);
+            }
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new IllegalStateException("training failed", ex);
+        }
+    }
+
+    // the counts of some deltas in tables of their own
+    private MultiBayes partial(List<Delta> deltas) {
+        MultiBayes partial = new MultiBayes(Arrays.asList(tags), vocabulary);
+        partial.ensureCapacity(vocabulary.size());
+        partial.apply(deltas, null);
+        return partial;
+    }
+
+    private void merge(List<MultiBayes> partials, ForkJoinPool pool) throws InterruptedException, ExecutionException {
+        pool.submit(() -> IntStream.range(-1, tags.length).parallel().forEach(t -> {
+            final long a = System.nanoTime();
+            for (MultiBayes p : partials) {
+                if (t < 0) {
+                    read.add(p.read);
+                    readDirty |= p.readDirty;
+                } else {
+                    tagged[t].add(p.tagged[t]);
+                    taggedRead[t].add(p.taggedRead[t]);
+                    dirty[t] |= p.dirty[t];
+                    trainNanos[t] += p.trainNanos[t];
+                }
+            }
+            if (t >= 0) {
+                trainNanos[t] += System.nanoTime() - a;
+            }
+        })).get();
+    }
+
+    // tag -1 are the shared read counts
+    private void apply(List<Delta> deltas, int t) {
+        final long a = System.nanoTime();
+        for (Delta d : deltas) {
+            if (t < 0) {
+                if (d.read) {
+                    read.add(d.tokens, d.distinct, d.distinct.length, d.sign);
+                    readDirty = true;
+                }
+            } else if (Arrays.asList(d.labels).contains(tags[t])) {
+                tagged[t].add(d.tokens, d.distinct, d.distinct.length, d.sign);
+                if (d.read) {
+                    taggedRead[t].add(d.tokens, d.distinct, d.distinct.length, d.sign);
+                }
+                dirty[t] = true;
+            }
+        }
+        if (t >= 0) {
+            trainNanos[t] += System.nanoTime() - a;
+        }
+    }
+
+    // time spent on updating the counts of a tag
+    long getTrainNanos(int tag) {
+        return trainNanos[tag];
+    }
+
+    // same filter as Bayes.reduce, evaluated per tag without touching the counts
+    void reduce(BayesCfg cfg) {
+        ensureCapacity(vocabulary.size());
+        for (int t = 0; t < tags.length; t++) {
+            reduce(t, cfg);
+        }
+    }
+
+    // tags can be reduced concurrently once the tables have their final size (see distinct)
+    void reduce(int t, BayesCfg cfg) {
+        int size = this.size;
+        Counts a = tagged[t], ra = taggedRead[t];
+        double nb = read.n - ra.n;
+        double maxDocs = (a.n + nb) * cfg.maxDocP;
+        boolean[] k = new boolean[size];
+        int seen = 0, left = 0;
+        for (int w = 0; w < size; w++) {
+            int cA = a.terms[w];
+            int cB = read.terms[w] - ra.terms[w];
+            int docs = a.docs[w] + read.docs[w] - ra.docs[w];
+            if (docs == 0) { // word never seen by this tag's classifier
+                continue;
+            }
+            seen++;
+            double p = 1d * cA / (cA + cB);
+            k[w] = docs >= cfg.minDoc && docs <= maxDocs && !(Math.abs(p - 0.5) < cfg.minP);
+            if (k[w]) {
+                left++;
+            }
+        }
+        keep[t] = k;
+        known[t] = seen;
+        kept[t] = left;
+    }
+
+    int getKnownWords(int tag) {
+        return known[tag];
+    }
+
+    int getKeptWords(int tag) {
+        return kept[tag];
+    }
+
+    Vocabulary getVocabulary() {
+        return vocabulary;
+    }
+
+    // word w survived the last reduce of tag t
+    boolean isKept(int t, int w) {
+        return w < keep[t].length && keep[t][w];
+    }
+
+    // the final word probability that scoring uses, .5 for unknown and removed words
+    double probability(int t, int w) {
+        return isA(t, w);
+    }
+
+    private double isA(int t, int w) {
+        if (w >= keep[t].length || !keep[t][w]) {
+            return .5;
+        }
+        Counts a = tagged[t], ra = taggedRead[t];
+        double nb = read.n - ra.n;
+        double pa = min(1, (double) a.terms[w] * 2 / a.n); // c.a x 2 due to PaulGraham
+        double pb = min(1, (double) (read.terms[w] - ra.terms[w]) / nb);
+        double p = pa / (pa + pb);
+        return max(.01, min(0.99, p)); // bind into [.01, .99]
+    }
+
+    // probability of the doc for every tag, in a single walk over its distinct tokens
+    double[] docIsA(Doc doc) {
+        for (TopWords t : top) {
+            t.clear();
+        }
+        stamp++;
+        for (int w : doc.tokens) {
+            if (w < size) {
+                if (seen[w] == stamp) {
+                    continue;
+                }
+                seen[w] = stamp;
+            }
+            for (int t = 0; t < tags.length; t++) {
+                top[t].offer(isA(t, w));
+            }
+        }
+        double[] result = new double[tags.length];
+        for (int t = 0; t < tags.length; t++) {
+            result[t] = top[t].probability();
+        }
+        return result;
+    }
+
+    // probability of a doc given as its distinct tokens for a single tag,
+    // different tags can be scored concurrently
+    double docIsA(int t, int[] distinct) {
+        TopWords top = this.top[t];
+        top.clear();
+        for (int w : distinct) {
+            top.offer(isA(t, w));
+        }
+        return top.probability();
+    }
+
+    @Override
+    public String toString() {
+        return "MultiBayes{" + "tags=" + Arrays.toString(tags) + ", nr=" + read.n + '}';
+    }
+}
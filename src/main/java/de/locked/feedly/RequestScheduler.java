@@ -0,0 +1,186 @@
+package de.locked.feedly;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.gson.Gson;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+// Decides when a Feedly request may go out. Waiting requests are sent in priority order,
+// sync reads before write-backs, through a rate limiter shared by all threads.
+// A 429 pauses every request for its Retry-After and halves the rate, which then grows
+// back slowly while requests succeed. Failed attempts are retried with an exponential,
+// jittered backoff. A request that would have to wait for more than feedly.maxRetryWaitSeconds,
+// or that exceeds the daily budget (-Dfeedly.dailyRequests, UTC days, 0: none), fails with
+// Deferred and is left for a later run: syncs resume from SyncState, write-backs are kept
+// by ActionBuffer. Requests used today and a pending pause are kept in quota.json.
+class RequestScheduler {
+
+    private static final Logger log = LogManager.getLogger(RequestScheduler.class);
+    private static final Gson gson = new Gson();
+    static final String FILE = System.getProperty("feedly.quotaFile", "quota.json");
+    private static final int DAILY_BUDGET = Integer.getInteger("feedly.dailyRequests", 0);
+    private static final int MAX_RETRIES = Integer.getInteger("feedly.maxRetries", 5);
+    private static final long MAX_WAIT = Long.getLong("feedly.maxRetryWaitSeconds", 300) * 1000;
+    private static final long BACKOFF = 1000; // ms before the first retry, doubled for every further one
+    private static final int RECOVER_AFTER = 20; // successful requests per step back to the full rate
+
+    enum Priority {
+        READ, WRITE // in the order they are served
+    }
+
+    // the request was not sent, the work is left for a later run
+    static class Deferred extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        Deferred(String message) {
+            super(message);
+        }
+    }
+
+    // persisted
+    private static class Quota {
+
+        String day = "";
+        int used = 0;
+        long pausedUntil = 0; // epoch ms
+    }
+
+    private static class Ticket {
+
+        final Priority priority;
+        final long seq;
+
+        Ticket(Priority priority, long seq) {
+            this.priority = priority;
+            this.seq = seq;
+        }
+    }
+
+    private final File file;
+    private final int budget;
+    private final double rate;
+    private final RateLimiter limiter;
+    private final PriorityQueue<Ticket> waiting = new PriorityQueue<>((a, b) -> a.priority != b.priority
+            ? a.priority.compareTo(b.priority) : Long.compare(a.seq, b.seq));
+    private Quota quota = new Quota();
+    private long seq = 0;
+    private int succeeded = 0;
+
+    RequestScheduler(File file, double requestsPerSecond) {
+        this(file, requestsPerSecond, DAILY_BUDGET);
+    }
+
+    RequestScheduler(File file, double requestsPerSecond, int budget) {
+        this.file = file;
+        this.budget = budget;
+        this.rate = requestsPerSecond;
+        this.limiter = RateLimiter.create(requestsPerSecond);
+        if (file != null && file.exists()) {
+            try {
+                Quota stored = gson.fromJson(new String(Files.readAllBytes(file.toPath())), Quota.class);
+                if (stored != null && stored.day != null) {
+                    quota = stored;
+                }
+            } catch (IOException | RuntimeException ex) {
+                log.warn("ignoring unreadable quota " + file, ex);
+            }
+        }
+    }
+
+    // Blocks until it is the turn of this request: no request of a higher priority waits,
+    // no pause is running and the rate allows one more. The permit is taken while the request
+    // is still at the head of the queue, so permits are handed out in priority order.
+    void acquire(Priority priority) throws IOException {
+        synchronized (this) {
+            Ticket ticket = new Ticket(priority, seq++);
+            waiting.add(ticket);
+            try {
+                while (true) {
+                    long pause = quota.pausedUntil - System.currentTimeMillis();
+                    if (pause > MAX_WAIT) {
+                        throw new Deferred(String.format("Feedly asked to pause for %ds", pause / 1000));
+                    }
+                    if (waiting.peek() == ticket && pause <= 0) {
+                        rollDay();
+                        if (budget > 0 && quota.used >= budget) {
+                            throw new Deferred("daily budget of " + budget + " requests used up");
+                        }
+                        if (limiter.tryAcquire()) {
+                            break;
+                        }
+                        pause = (long) Math.ceil(1000 / limiter.getRate());
+                    }
+                    wait(Math.max(1, Math.min(pause, 1000)));
+                }
+                quota.used++;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new Deferred("interrupted while waiting for a request slot");
+            } finally {
+                waiting.remove(ticket);
+                notifyAll();
+            }
+            Metrics.RUN.gauge("request_budget_used", quota.used);
+        }
+    }
+
+    private void rollDay() {
+        String today = LocalDate.now(ZoneOffset.UTC).toString();
+        if (!today.equals(quota.day)) {
+            quota.day = today;
+            quota.used = 0;
+        }
+    }
+
+    synchronized void succeeded() {
+        if (limiter.getRate() < rate && ++succeeded >= RECOVER_AFTER) {
+            succeeded = 0;
+            limiter.setRate(Math.min(rate, limiter.getRate() * 1.25));
+            Metrics.RUN.gauge("request_rate", limiter.getRate());
+        }
+    }
+
+    // Delay in ms before the given retry (1, 2, ...) of a failed attempt, at least
+    // retryAfter ms (0: not given). A 429 pauses all requests and slows the rate down.
+    synchronized long retry(int attempt, int status, long retryAfter) throws Deferred {
+        if (attempt > MAX_RETRIES) {
+            throw new Deferred("gave up after " + MAX_RETRIES + " retries, last status " + status);
+        }
+        long backoff = BACKOFF << Math.min(attempt - 1, 20);
+        long delay = Math.max(retryAfter, (long) (backoff * ThreadLocalRandom.current().nextDouble(0.5, 1.5)));
+        if (delay > MAX_WAIT) {
+            throw new Deferred(String.format("Feedly asked to wait %ds, status %d", delay / 1000, status));
+        }
+        if (status == 429) {
+            quota.pausedUntil = Math.max(quota.pausedUntil, System.currentTimeMillis() + delay);
+            limiter.setRate(Math.max(rate / 64, limiter.getRate() / 2));
+            succeeded = 0;
+            Metrics.RUN.gauge("request_rate", limiter.getRate());
+            notifyAll();
+        }
+        return delay;
+    }
+
+    synchronized int getUsed() {
+        rollDay();
+        return quota.used;
+    }
+
+    synchronized void save() throws IOException {
+        if (file == null) {
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), gson.toJson(quota).getBytes());
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,111 @@
+package de.locked.feedly;
+
+import com.google.gson.Gson;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+// Suggestions of the interactive mode. A run does not ask for them on the spot: it scores
+// everything and saves the queue, best first over all tags. The review option goes through
+// it later, and the accepted ones are written back in bulk. Rejected suggestions are
+// remembered and not offered again while the entry is still a candidate.
+class ReviewQueue {
+
+    private static final Logger log = LogManager.getLogger(ReviewQueue.class);
+    private static final Gson gson = new Gson();
+    static final String FILE = System.getProperty("feedly.reviewQueue", "review-queue.json");
+
+    static class Item {
+
+        String entryId;
+        String tag;
+        double p;
+        String title;
+
+        Item(Decision d) {
+            entryId = d.doc.id;
+            tag = d.tag;
+            p = d.p;
+            title = d.doc.title;
+        }
+
+        String key() {
+            return tag + " " + entryId;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.2f: %s: %s", p, tag, title);
+        }
+    }
+
+    private final transient File file;
+    private List<Item> items = new ArrayList<>();
+    private Set<String> rejected = new HashSet<>(); // Item.key
+
+    private ReviewQueue(File file) {
+        this.file = file;
+    }
+
+    static ReviewQueue load(File file) {
+        ReviewQueue queue = new ReviewQueue(file);
+        if (file.exists()) {
+            try {
+                ReviewQueue stored = gson.fromJson(new String(Files.readAllBytes(file.toPath())), ReviewQueue.class);
+                if (stored != null && stored.items != null && stored.rejected != null) {
+                    queue.items = stored.items;
+                    queue.rejected = stored.rejected;
+                }
+            } catch (IOException | RuntimeException ex) {
+                log.warn("ignoring unreadable review queue " + file, ex);
+            }
+        }
+        return queue;
+    }
+
+    // the suggestions of the latest run replace the queue
+    synchronized void offer(List<Decision> decisions) {
+        List<Item> offered = new ArrayList<>();
+        Set<String> suggested = new HashSet<>();
+        for (Decision d : decisions) {
+            Item item = new Item(d);
+            suggested.add(item.key());
+            if (!rejected.contains(item.key())) {
+                offered.add(item);
+            }
+        }
+        offered.sort(Comparator.comparingDouble((Item i) -> i.p).reversed());
+        items = offered;
+        rejected.retainAll(suggested);
+    }
+
+    synchronized List<Item> items() {
+        return new ArrayList<>(items);
+    }
+
+    synchronized int size() {
+        return items.size();
+    }
+
+    // answered, accepted items are written back by the caller
+    synchronized void done(Item item, boolean accepted) {
+        items.remove(item);
+        if (!accepted) {
+            rejected.add(item.key());
+        }
+    }
+
+    synchronized void save() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), gson.toJson(this).getBytes());
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
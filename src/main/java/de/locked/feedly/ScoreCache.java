@@ -0,0 +1,182 @@
+package de.locked.feedly;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.mapdb.Atomic;
+import org.mapdb.DB;
+
+// Scores of the unread entries from earlier runs, one record per entry with the scores of
+// all tags. A score is reused as long as the entry's updated timestamp, its tokens and the
+// version of the tag's model (see ModelStore.getVersion) are the same. The version of every
+// tag also changes when only the shared read counts changed, so any entry that was read
+// since the last run invalidates all cached scores of every tag.
+// The cache is read from the db of the model store once per run and written back once, as
+// a single value, so it is committed and rolled back together with the versions it refers to.
+class ScoreCache {
+
+    private static final Logger log = LogManager.getLogger(ScoreCache.class);
+    private static final long NONE = -1; // version of a score that is missing
+
+    // the scores of one entry, in the order of the tags
+    private static class Scores {
+
+        final long updated;
+        final int tokens; // hash of the distinct tokens
+        final long[] versions;
+        final double[] p;
+
+        Scores(long updated, int tokens, int tags) {
+            this.updated = updated;
+            this.tokens = tokens;
+            this.versions = new long[tags];
+            this.p = new double[tags];
+            Arrays.fill(versions, NONE);
+        }
+    }
+
+    private final Atomic.Var<byte[]> stored;
+    private final Atomic.String snapshot; // model version of the last snapshot
+    private List<String> tags = new ArrayList<>();
+    private Map<String, Scores> scores = new HashMap<>();
+
+    // scores of another cfg are dropped
+    ScoreCache(DB db, String cfg) {
+        stored = db.getAtomicVar("scoreCache");
+        snapshot = db.getAtomicString("snapshot");
+        Atomic.String scoredWith = db.getAtomicString("scoredWith");
+        if (!cfg.equals(scoredWith.get())) {
+            stored.set(new byte[0]);
+            snapshot.set("");
+            scoredWith.set(cfg);
+        } else if (stored.get() != null && stored.get().length > 0) {
+            try {
+                read(stored.get());
+            } catch (IOException ex) {
+                log.warn("ignoring an unreadable score cache", ex);
+                tags.clear();
+                scores.clear();
+            }
+        }
+    }
+
+    // Keeps the records of these candidates, with the scores of these tags in this order.
+    // Records of other entries and of entries that were updated are dropped, their number
+    // is returned. Call before get and put; these may then run in parallel for distinct tags.
+    int retain(List<Doc> candidates, int[] hashes, List<String> labels) {
+        int[] from = new int[labels.size()];
+        for (int t = 0; t < from.length; t++) {
+            from[t] = tags.indexOf(labels.get(t));
+        }
+        Map<String, Scores> kept = new HashMap<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            Doc doc = candidates.get(i);
+            Scores old = scores.get(doc.id);
+            Scores now = new Scores(doc.updated, hashes[i], labels.size());
+            if (old != null && old.updated == doc.updated && old.tokens == hashes[i]) {
+                for (int t = 0; t < from.length; t++) {
+                    if (from[t] >= 0) {
+                        now.versions[t] = old.versions[from[t]];
+                        now.p[t] = old.p[from[t]];
+                    }
+                }
+            }
+            kept.put(doc.id, now);
+        }
+        int dropped = 0;
+        for (Map.Entry<String, Scores> e : scores.entrySet()) {
+            Scores now = kept.get(e.getKey());
+            if (now == null || now.updated != e.getValue().updated || now.tokens != e.getValue().tokens) {
+                dropped++;
+            }
+        }
+        tags = new ArrayList<>(labels);
+        scores = kept;
+        return dropped;
+    }
+
+    // the cached score of the tag at index t or null
+    Double get(Doc doc, int t, long version) {
+        Scores s = scores.get(doc.id);
+        return s == null || s.versions[t] != version ? null : s.p[t];
+    }
+
+    void put(Doc doc, int t, long version, double p) {
+        Scores s = scores.get(doc.id);
+        s.versions[t] = version;
+        s.p[t] = p;
+    }
+
+    // entries with a record
+    int size() {
+        return scores.size();
+    }
+
+    // writes the records to the db, the owner commits
+    void save() {
+        try {
+            stored.set(write());
+        } catch (IOException ex) {
+            log.warn("cannot save the score cache", ex);
+        }
+    }
+
+    private byte[] write() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(tags.size());
+            for (String tag : tags) {
+                out.writeUTF(tag);
+            }
+            out.writeInt(scores.size());
+            for (Map.Entry<String, Scores> e : scores.entrySet()) {
+                Scores s = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(s.updated);
+                out.writeInt(s.tokens);
+                for (int t = 0; t < tags.size(); t++) {
+                    out.writeLong(s.versions[t]);
+                    out.writeDouble(s.p[t]);
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private void read(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            int n = in.readInt();
+            for (int t = 0; t < n; t++) {
+                tags.add(in.readUTF());
+            }
+            int entries = in.readInt();
+            for (int i = 0; i < entries; i++) {
+                String id = in.readUTF();
+                Scores s = new Scores(in.readLong(), in.readInt(), n);
+                for (int t = 0; t < n; t++) {
+                    s.versions[t] = in.readLong();
+                    s.p[t] = in.readDouble();
+                }
+                scores.put(id, s);
+            }
+        }
+    }
+
+    // the snapshot written last was made from this model version
+    boolean isSnapshot(long version) {
+        return Long.toString(version).equals(snapshot.get());
+    }
+
+    void setSnapshot(long version) {
+        snapshot.set(Long.toString(version));
+    }
+}
@@ -0,0 +1,252 @@
+package de.locked.feedly;
+
+import de.locked.feedly.feedly.Entry;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+// A reduced MultiBayes frozen for scoring: the final, clamped isA of every tag and word
+// in one table, no counts and no divisions left. Only words that at least one tag kept
+// are stored, sorted, and found by binary search. A hashed model stores all buckets.
+// The file is opened through a memory map and used in place, so a scoring process starts
+// without deserializing anything and processes share the pages. Scores are the same as
+// MultiBayes.docIsA; with a prefiltered hashed model rare words are not dropped here.
+//
+// layout (big endian): int magic, int version, int tags, int words, int buckets (0: sorted words)
+// per tag: int length, chars of the name
+// sorted words only: int[words + 1] start of each word in the chars, chars of all words
+// padding to 8 bytes, double[tags][words] isA
+class ScoringSnapshot {
+
+    private static final Logger log = LogManager.getLogger(ScoringSnapshot.class);
+    static final String FILE = System.getProperty("feedly.snapshot", "databases/model.snapshot");
+    private static final int MAGIC = 0x46534e50; // FSNP
+    private static final int VERSION = 1;
+
+    private final String[] tags;
+    private final int words;
+    private final HashedVocabulary hashed; // null for sorted words
+    private final IntBuffer starts;
+    private final CharBuffer chars;
+    private final DoubleBuffer isA;
+
+    private ScoringSnapshot(ByteBuffer b) throws IOException {
+        if (b.getInt() != MAGIC || b.getInt() != VERSION) {
+            throw new IOException("not a scoring snapshot");
+        }
+        tags = new String[b.getInt()];
+        words = b.getInt();
+        int buckets = b.getInt();
+        for (int t = 0; t < tags.length; t++) {
+            char[] name = new char[b.getInt()];
+            b.asCharBuffer().get(name);
+            b.position(b.position() + 2 * name.length);
+            tags[t] = new String(name);
+        }
+        if (buckets > 0) {
+            hashed = new HashedVocabulary(buckets, 0);
+            starts = null;
+            chars = null;
+        } else {
+            hashed = null;
+            starts = slice(b, 4 * (words + 1)).asIntBuffer();
+            int length = starts.get(words);
+            chars = slice(b, 2 * length).asCharBuffer();
+        }
+        b.position((b.position() + 7) & ~7);
+        isA = slice(b, 8L * tags.length * words).asDoubleBuffer();
+    }
+
+    private static ByteBuffer slice(ByteBuffer b, long bytes) {
+        ByteBuffer s = b.slice();
+        s.limit((int) bytes);
+        b.position(b.position() + (int) bytes);
+        return s;
+    }
+
+    static ScoringSnapshot open(File file) throws IOException {
+        final long a = System.nanoTime();
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ScoringSnapshot snapshot = new ScoringSnapshot(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+            log.info(String.format("opened snapshot %s: %d tags, %d words in %.1fms",
+                    file, snapshot.tags.length, snapshot.words, (System.nanoTime() - a) / 1e6));
+            return snapshot;
+        }
+    }
+
+    // all tags of the model must have been reduced
+    static void write(MultiBayes model, File file) throws IOException {
+        final long a = System.nanoTime();
+        Vocabulary vocabulary = model.getVocabulary();
+        boolean buckets = vocabulary instanceof HashedVocabulary;
+
+        List<Integer> ids = new ArrayList<>(); // vocabulary ids of the stored words, in stored order
+        if (buckets) {
+            for (int w = 0; w < vocabulary.size(); w++) {
+                ids.add(w);
+            }
+        } else {
+            for (int w = 0; w < vocabulary.size(); w++) {
+                for (int t = 0; t < model.size(); t++) {
+                    if (model.isKept(t, w)) {
+                        ids.add(w);
+                        break;
+                    }
+                }
+            }
+            ids.sort((x, y) -> vocabulary.word(x).compareTo(vocabulary.word(y)));
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        long written;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(model.size());
+            out.writeInt(ids.size());
+            out.writeInt(buckets ? vocabulary.size() : 0);
+            for (int t = 0; t < model.size(); t++) {
+                out.writeInt(model.getName(t).length());
+                out.writeChars(model.getName(t));
+            }
+            if (!buckets) {
+                int start = 0;
+                for (int w : ids) {
+                    out.writeInt(start);
+                    start += vocabulary.word(w).length();
+                }
+                out.writeInt(start);
+                for (int w : ids) {
+                    out.writeChars(vocabulary.word(w));
+                }
+            }
+            while (out.size() % 8 != 0) {
+                out.writeByte(0);
+            }
+            for (int t = 0; t < model.size(); t++) {
+                for (int w : ids) {
+                    out.writeDouble(model.probability(t, w));
+                }
+            }
+            written = out.size();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info(String.format("wrote snapshot %s: %d tags, %d words, %d bytes in %.2fs",
+                file, model.size(), ids.size(), written, (System.nanoTime() - a) / 1e9));
+    }
+
+    int size() {
+        return tags.length;
+    }
+
+    String getName(int tag) {
+        return tags[tag];
+    }
+
+    // number of stored words, the index range of find
+    int words() {
+        return words;
+    }
+
+    // index of the word or -1 if no tag knows it
+    int find(CharSequence word) {
+        if (hashed != null) {
+            return hashed.id(word);
+        }
+        int lo = 0, hi = words - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(mid, word);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    // String.compareTo of the stored word and the given one
+    private int compare(int index, CharSequence word) {
+        int from = starts.get(index);
+        int length = starts.get(index + 1) - from;
+        int n = Math.min(length, word.length());
+        for (int i = 0; i < n; i++) {
+            char c = chars.get(from + i);
+            char d = word.charAt(i);
+            if (c != d) {
+                return c - d;
+            }
+        }
+        return length - word.length();
+    }
+
+    double isA(int tag, int word) {
+        return isA.get(tag * words + word);
+    }
+
+    // probability for one tag, distinct are indexes of find in order of first occurrence
+    double docIsA(int tag, int[] distinct, TopWords top) {
+        top.clear();
+        int base = tag * words;
+        for (int w : distinct) {
+            top.offer(isA.get(base + w));
+        }
+        return top.probability();
+    }
+
+    // Tokenizes and scores entries for every tag, one per thread. The snapshot itself
+    // is read only and shared.
+    class Scorer {
+
+        private final Tokenizer tokenizer = new Tokenizer();
+        private final TopWords top = new TopWords(Bayes.TOP_X_WORDS);
+        private final int[] seen = new int[words];
+        private int stamp = 0;
+        private int[] distinct = new int[256];
+        private int n;
+
+        double[] docIsA(Entry e) {
+            stamp++;
+            n = 0;
+            tokenizer.tokenize(e, word -> {
+                int w = find(word);
+                if (w >= 0 && seen[w] != stamp) {
+                    seen[w] = stamp;
+                    if (n == distinct.length) {
+                        distinct = Arrays.copyOf(distinct, n * 2);
+                    }
+                    distinct[n++] = w;
+                }
+            });
+            int[] words = Arrays.copyOf(distinct, n);
+            double[] p = new double[tags.length];
+            for (int t = 0; t < tags.length; t++) {
+                p[t] = ScoringSnapshot.this.docIsA(t, words, top);
+            }
+            return p;
+        }
+    }
+
+    Scorer scorer() {
+        return new Scorer();
+    }
+}
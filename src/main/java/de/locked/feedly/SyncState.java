@@ -0,0 +1,74 @@
+package de.locked.feedly;
+
+import com.google.gson.Gson;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+// Per category high-water marks and pending continuations, persisted after every page
+// so that the next run only asks for newer entries and an interrupted sync can resume.
+class SyncState {
+
+    private static final Logger log = LogManager.getLogger(SyncState.class);
+    private static final Gson gson = new Gson();
+
+    static class Cursor {
+
+        long newerThan = 0; // crawled timestamp of the newest entry of the last complete sync
+        long pendingNewerThan = 0; // newest entry seen by the running sync
+        String continuation; // set while a sync is incomplete
+
+        @Override
+        public String toString() {
+            return "Cursor{" + "newerThan=" + newerThan + ", continuation=" + continuation + '}';
+        }
+    }
+
+    private final transient File file;
+    private Map<String, Cursor> cursors = new HashMap<>();
+    long markersNewerThan = 0;
+    long tagsCheckedAt = 0; // last comparison of the stored tags with the tag streams
+
+    private SyncState(File file) {
+        this.file = file;
+    }
+
+    static SyncState load(File file) {
+        SyncState state = new SyncState(file);
+        if (file.exists()) {
+            try {
+                SyncState stored = gson.fromJson(new String(Files.readAllBytes(file.toPath())), SyncState.class);
+                if (stored != null && stored.cursors != null) {
+                    state.cursors = stored.cursors;
+                    state.markersNewerThan = stored.markersNewerThan;
+                    state.tagsCheckedAt = stored.tagsCheckedAt;
+                }
+            } catch (IOException | RuntimeException ex) {
+                log.warn("ignoring unreadable sync state " + file, ex);
+            }
+        }
+        return state;
+    }
+
+    synchronized Cursor get(String streamId) {
+        return cursors.computeIfAbsent(streamId, k -> new Cursor());
+    }
+
+    synchronized void save() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), gson.toJson(this).getBytes());
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    synchronized void clear() {
+        cursors.clear();
+        markersNewerThan = 0;
+        tagsCheckedAt = 0;
+        file.delete();
+    }
+}
@@ -0,0 +1,1055 @@
+package de.locked.feedly;
+
+import de.locked.feedly.feedly.Category;
+import de.locked.feedly.feedly.Entry;
+import de.locked.feedly.feedly.TypeHref;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.jsoup.nodes.Entities;
+
+// Streaming replacement for Utils.getAllContent: the html of a field is walked
+// once, without a DOM and without intermediate strings, and the tokens are
+// handed out as a reused char sequence.
+// It mirrors Jsoup.parse + HtmlToPlainText for the markup found in feeds:
+// entities are decoded, text runs are whitespace normalized and pass the same
+// 80 column word wrap, links get their " <url>" and block ends their newlines.
+// Markup outside of that (tables, forms, pre, misnested links, NUL chars, ...)
+// makes the field fall back to Utils.splitContent, so the tokens never differ.
+// Not thread safe, buffers are reused between fields.
+class Tokenizer {
+
+    private static final Logger log = LogManager.getLogger(Tokenizer.class);
+
+    // receives the tokens, the sequence is only valid during the call
+    interface Sink {
+
+        void token(CharSequence token);
+    }
+
+    private static final int MAX_WIDTH = 80; // HtmlToPlainText
+    private static final char[] NEWLINE = {'\n'};
+    private static final char[] PARAGRAPH = {'\n', '\n'};
+    private static final char[] ITEM = {'\n', ' ', '*', ' '};
+    // tr, az and lt lowercase differently, leave those to String.toLowerCase
+    private static final boolean PLAIN_LOCALE = !Arrays.asList("tr", "az", "lt")
+            .contains(Locale.getDefault().getLanguage());
+
+    // what the tree builder does with an element
+    private static final byte OTHER = 0, A = 1, FORMAT = 2, P = 3, HEADING = 4, H6 = 5, LI = 6,
+            BLOCK = 7, VOID = 8, EMPTY = 9, BR = 10, HR = 11, RAW = 12, UNSUPPORTED = 13;
+    private static final String[] NAMES;
+    private static final byte[] KINDS;
+
+    static {
+        Object[][] kinds = {
+            {A, "a"},
+            {FORMAT, "b", "big", "code", "em", "font", "i", "s", "small", "strike", "strong", "tt", "u"},
+            {P, "p"},
+            {HEADING, "h1", "h2", "h3", "h4", "h5"},
+            {H6, "h6"},
+            {LI, "li"},
+            {BLOCK, "address", "article", "aside", "blockquote", "center", "details", "dir", "div", "dl",
+                "fieldset", "figcaption", "figure", "footer", "header", "hgroup", "menu", "nav", "ol",
+                "section", "summary", "ul"},
+            {VOID, "area", "embed", "img", "input", "keygen", "wbr"},
+            {EMPTY, "base", "basefont", "bgsound", "command", "link", "meta", "param", "source", "track"},
+            {BR, "br"},
+            {HR, "hr"},
+            {RAW, "script", "style"},
+            {UNSUPPORTED, "applet", "body", "button", "caption", "col", "colgroup", "dd", "dt", "form",
+                "frame", "frameset", "head", "html", "iframe", "image", "isindex", "listing", "marquee",
+                "math", "nobr", "noembed", "noframes", "noscript", "object", "optgroup", "option",
+                "plaintext", "pre", "rp", "rt", "sarcasm", "select", "svg", "table", "tbody", "td",
+                "textarea", "tfoot", "th", "thead", "title", "tr", "xmp"}
+        };
+        int n = 0;
+        for (Object[] k : kinds) {
+            n += k.length - 1;
+        }
+        String[] names = new String[n];
+        int i = 0;
+        for (Object[] k : kinds) {
+            for (int j = 1; j < k.length; j++) {
+                names[i++] = (String) k[j];
+            }
+        }
+        Arrays.sort(names);
+        KINDS = new byte[n];
+        for (Object[] k : kinds) {
+            for (int j = 1; j < k.length; j++) {
+                KINDS[Arrays.binarySearch(names, (String) k[j])] = (Byte) k[0];
+            }
+        }
+        NAMES = names;
+    }
+
+    // thrown when the field holds markup that is not modelled
+    private static class Unsupported extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+    private static final Unsupported UNSUPPORTED_MARKUP = new Unsupported();
+
+    private int fallbacks = 0;
+
+    // input
+    private String in;
+    private int end;
+
+    // current text node, whitespace normalized
+    private char[] text = new char[256];
+    private int textLength;
+    private boolean textWhite;
+
+    // the accumulated plain text, only what the word wrap looks at
+    private int width;
+    private boolean accumEmpty;
+    private char last;
+
+    // tokens of the current field, flushed to the sink once the field is done
+    private char[] chars = new char[1024];
+    private int charsLength;
+    private int tokenStart;
+    private int[] ends = new int[256];
+    private int tokens;
+    private final Slice slice = new Slice();
+
+    // open elements
+    private int depth;
+    private byte[] kinds = new byte[32];
+    private String[] names = new String[32];
+    private String[] hrefs = new String[32];
+    private int[] ids = new int[32];
+    private int nextId;
+
+    // active formatting elements, there are no markers in the modelled markup
+    private int active;
+    private int[] activeIds = new int[32];
+    private String[] activeNames = new String[32];
+
+    // scratch
+    private char[] name = new char[16];
+    private int nameLength;
+    private final StringBuilder value = new StringBuilder();
+    private char[] url = new char[64];
+    private int refEnd;
+
+    // number of fields that were given to jsoup
+    int getFallbacks() {
+        return fallbacks;
+    }
+
+    // the tokens of Utils.getAllContent, in the same order
+    void tokenize(Entry e, Sink sink) {
+        html(e.summary.content, sink);
+        html(e.content.content, sink);
+        html(e.title, sink);
+        html(e.originId, sink);
+        html(e.origin.title, sink);
+        for (String keyword : Utils.toList(e.keywords)) {
+            word(keyword, sink);
+        }
+        for (TypeHref th : Utils.toList(e.alternate)) {
+            html(th.href, sink);
+        }
+        for (Category category : Utils.toList(e.categories)) {
+            word(category.label, sink);
+        }
+    }
+
+    private void word(String s, Sink sink) {
+        if (!s.isEmpty()) {
+            sink.token(s);
+        }
+    }
+
+    private void html(String s, Sink sink) {
+        if (s == null || s.isEmpty()) {
+            return;
+        }
+        try {
+            if (!PLAIN_LOCALE) {
+                throw UNSUPPORTED_MARKUP;
+            }
+            parse(s);
+            for (int i = 0, start = 0; i < tokens; start = ends[i++]) {
+                sink.token(slice.of(chars, start, ends[i]));
+            }
+        } catch (Unsupported ex) {
+            fallbacks++;
+            for (String token : Utils.splitContent(s)) {
+                word(token, sink);
+            }
+        }
+    }
+
+    private void parse(String s) {
+        in = s;
+        end = s.length();
+        textLength = 0;
+        textWhite = false;
+        width = 0;
+        accumEmpty = true;
+        last = 0;
+        charsLength = 0;
+        tokenStart = 0;
+        tokens = 0;
+        depth = 0;
+        active = 0;
+
+        int pos = 0;
+        while (pos < end) {
+            char c = in.charAt(pos);
+            if (c == '<') {
+                pos = markup(pos);
+            } else if (c == '&') {
+                int cp = reference(pos + 1, -1, false);
+                if (cp < 0) {
+                    textChar('&');
+                    pos++;
+                } else {
+                    textCodePoint(cp);
+                    pos = refEnd;
+                }
+            } else if (c == 0) {
+                throw UNSUPPORTED_MARKUP;
+            } else {
+                textChar(c);
+                pos++;
+            }
+        }
+        flushText();
+        while (depth > 0) {
+            pop();
+        }
+        endToken();
+    }
+
+    // -- tokenizer states ---------------------------------------------------
+    // a '<' at pos, returns the position after the markup
+    private int markup(int pos) {
+        int p = pos + 1;
+        if (p >= end) {
+            textChar('<');
+            return end;
+        }
+        char c = in.charAt(p);
+        if (c == '!') {
+            if (in.startsWith("--", p + 1)) {
+                flushText();
+                return comment(p + 3);
+            }
+            if (in.regionMatches(true, p + 1, "doctype", 0, 7) || in.startsWith("[CDATA[", p + 1)) {
+                throw UNSUPPORTED_MARKUP;
+            }
+            flushText();
+            return bogusComment(p + 1);
+        } else if (c == '?') {
+            flushText();
+            return bogusComment(p);
+        } else if (c == '/') {
+            if (p + 1 >= end) {
+                textChar('<');
+                textChar('/');
+                return end;
+            }
+            char d = in.charAt(p + 1);
+            if (isAsciiLetter(d)) {
+                return tag(p + 1, false);
+            } else if (d == '>') {
+                return p + 2; // no token at all
+            }
+            flushText();
+            return bogusComment(p + 1);
+        } else if (isAsciiLetter(c)) {
+            return tag(p, true);
+        }
+        textChar('<');
+        return p;
+    }
+
+    // after "<!--", up to and including "-->" or "--!>"
+    private int comment(int i) {
+        if (i < end && in.charAt(i) == '>') {
+            return i + 1;
+        }
+        if (in.startsWith("->", i)) {
+            return i + 2;
+        }
+        while (true) {
+            int dashes = in.indexOf("--", i);
+            if (dashes < 0) {
+                return end;
+            }
+            int j = dashes + 2;
+            while (j < end && in.charAt(j) == '-') {
+                j++;
+            }
+            if (j < end && in.charAt(j) == '>') {
+                return j + 1;
+            }
+            if (in.startsWith("!>", j)) {
+                return j + 2;
+            }
+            i = j;
+        }
+    }
+
+    private int bogusComment(int i) {
+        int close = in.indexOf('>', i);
+        return close < 0 ? end : close + 1;
+    }
+
+    // a start or end tag whose name starts at i
+    private int tag(int i, boolean start) {
+        nameLength = 0;
+        while (i < end) {
+            char c = in.charAt(i);
+            if (isWhite(c) || c == '/' || c == '>') {
+                break;
+            }
+            if (c >= 0x80 || c == 0) {
+                throw UNSUPPORTED_MARKUP;
+            }
+            if (nameLength == name.length) {
+                name = Arrays.copyOf(name, nameLength * 2);
+            }
+            name[nameLength++] = c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+            i++;
+        }
+        int index = lookup();
+        byte kind = index < 0 ? OTHER : KINDS[index];
+        if (kind == UNSUPPORTED) {
+            throw UNSUPPORTED_MARKUP;
+        }
+        String tagName = index < 0 ? new String(name, 0, nameLength) : NAMES[index];
+        String href = null;
+        boolean selfClosing = false;
+        boolean captureHref = start && kind == A;
+
+        // attributes, a tag cut off by the end of the input is dropped
+        while (true) {
+            while (i < end && isWhite(in.charAt(i))) {
+                i++;
+            }
+            if (i >= end) {
+                return end;
+            }
+            char c = in.charAt(i);
+            if (c == '>') {
+                i++;
+                break;
+            }
+            if (c == '/') {
+                i++;
+                if (i >= end) {
+                    return end;
+                }
+                if (in.charAt(i) == '>') {
+                    selfClosing = true;
+                    i++;
+                    break;
+                }
+                continue;
+            }
+            int nameStart = i++;
+            while (i < end) {
+                c = in.charAt(i);
+                if (isWhite(c) || c == '/' || c == '=' || c == '>') {
+                    break;
+                }
+                i++;
+            }
+            boolean isHref = captureHref && i - nameStart == 4 && in.regionMatches(true, nameStart, "href", 0, 4);
+            while (i < end && isWhite(in.charAt(i))) {
+                i++;
+            }
+            if (i >= end) {
+                return end;
+            }
+            value.setLength(0);
+            if (in.charAt(i) == '=') {
+                i++;
+                while (i < end && isWhite(in.charAt(i))) {
+                    i++;
+                }
+                if (i >= end) {
+                    return end;
+                }
+                c = in.charAt(i);
+                if (c == '"' || c == '\'') {
+                    i = attributeValue(i + 1, c, isHref);
+                    if (i >= end) {
+                        return end;
+                    }
+                    i++; // closing quote
+                } else if (c != '>') {
+                    i = attributeValue(i, '>', isHref);
+                    if (i >= end) {
+                        return end;
+                    }
+                }
+            }
+            if (isHref) {
+                href = value.toString(); // the last one wins
+            }
+        }
+
+        flushText();
+        if (start) {
+            startTag(kind, tagName, href, selfClosing);
+        } else {
+            endTag(kind, tagName);
+        }
+        if (kind == RAW && start) {
+            return rawText(i, tagName);
+        }
+        return i;
+    }
+
+    // value up to the quote, or up to whitespace / '>' when unquoted ('>' as quote)
+    private int attributeValue(int i, char quote, boolean keep) {
+        while (i < end) {
+            char c = in.charAt(i);
+            if (c == quote || (quote == '>' && isWhite(c))) {
+                return i;
+            }
+            if (c == '&') {
+                int cp = reference(i + 1, quote, true);
+                if (cp >= 0) {
+                    if (keep) {
+                        value.appendCodePoint(cp);
+                    }
+                    i = refEnd;
+                    continue;
+                }
+            }
+            if (c == 0) {
+                throw UNSUPPORTED_MARKUP;
+            }
+            if (keep) {
+                value.append(c);
+            }
+            i++;
+        }
+        return i;
+    }
+
+    // script and style content is data, not text: skip to the matching end tag
+    private int rawText(int i, String tagName) {
+        int from = i;
+        while (true) {
+            int close = in.indexOf("</", from);
+            if (close < 0 || close + 2 + tagName.length() >= end) {
+                checkScript(i, end, tagName);
+                return end;
+            }
+            if (in.regionMatches(true, close + 2, tagName, 0, tagName.length())) {
+                char c = in.charAt(close + 2 + tagName.length());
+                if (isWhite(c) || c == '/' || c == '>') {
+                    checkScript(i, close, tagName);
+                    return close;
+                }
+            }
+            from = close + 2;
+        }
+    }
+
+    // script data has escape states that are not modelled
+    private void checkScript(int from, int to, String tagName) {
+        if (tagName.equals("script")) {
+            int comment = in.indexOf("<!--", from);
+            if (comment >= 0 && comment < to) {
+                throw UNSUPPORTED_MARKUP;
+            }
+        }
+    }
+
+    // the char reference after a '&' at i, -1 if there is none (Tokeniser.consumeCharacterReference)
+    private int reference(int i, int additional, boolean inAttribute) {
+        if (i >= end) {
+            return -1;
+        }
+        char c = in.charAt(i);
+        if (c == additional || isWhite(c) || c == '<' || c == '&') {
+            return -1;
+        }
+        if (c == '#') {
+            int j = i + 1;
+            boolean hex = j < end && (in.charAt(j) == 'x' || in.charAt(j) == 'X');
+            if (hex) {
+                j++;
+            }
+            int digits = j;
+            long value = 0;
+            while (j < end) {
+                int d = Character.digit(in.charAt(j), hex ? 16 : 10);
+                if (d < 0 || in.charAt(j) >= 0x80) {
+                    break;
+                }
+                value = Math.min(value * (hex ? 16 : 10) + d, Integer.MAX_VALUE + 1L);
+                j++;
+            }
+            if (j == digits) {
+                return -1;
+            }
+            if (j < end && in.charAt(j) == ';') {
+                j++;
+            }
+            refEnd = j;
+            if (value == 0) { // jsoup drops a text node of just this NUL but keeps longer ones
+                throw UNSUPPORTED_MARKUP;
+            }
+            if (value > Integer.MAX_VALUE || (value >= 0xD800 && value <= 0xDFFF) || value > 0x10FFFF) {
+                return 0xFFFD;
+            }
+            return (int) value;
+        }
+        int j = i;
+        while (j < end && isAsciiLetter(in.charAt(j))) {
+            j++;
+        }
+        while (j < end && in.charAt(j) >= '0' && in.charAt(j) <= '9') {
+            j++;
+        }
+        String ref = in.substring(i, j);
+        boolean semicolon = j < end && in.charAt(j) == ';';
+        if (!Entities.isBaseNamedEntity(ref) && !(semicolon && Entities.isNamedEntity(ref))) {
+            return -1;
+        }
+        if (inAttribute && j < end) {
+            char n = in.charAt(j);
+            if (isAsciiLetter(n) || (n >= '0' && n <= '9') || n == '=' || n == '-' || n == '_') {
+                return -1;
+            }
+        }
+        refEnd = semicolon ? j + 1 : j;
+        return Entities.getCharacterByName(ref);
+    }
+
+    // -- tree builder, the "in body" rules for the modelled elements ---------
+    private void startTag(byte kind, String tagName, String href, boolean selfClosing) {
+        switch (kind) {
+            case A:
+                if (activeIndex("a") >= 0) {
+                    throw UNSUPPORTED_MARKUP; // adoption agency
+                }
+                reconstruct();
+                push(A, tagName, href);
+                addActive(tagName);
+                break;
+            case FORMAT:
+                reconstruct();
+                push(FORMAT, tagName, null);
+                addActive(tagName);
+                break;
+            case P:
+            case BLOCK:
+                closeP();
+                push(kind, tagName, null);
+                break;
+            case HEADING:
+            case H6:
+                closeP();
+                if (depth > 0 && (kinds[depth - 1] == HEADING || kinds[depth - 1] == H6)) {
+                    pop();
+                }
+                push(kind, tagName, null);
+                break;
+            case LI:
+                for (int i = depth - 1; i >= 0; i--) {
+                    if (kinds[i] == LI) {
+                        endLi();
+                        break;
+                    }
+                    if (isSpecial(kinds[i]) && !names[i].equals("address") && !names[i].equals("div")
+                            && kinds[i] != P) {
+                        break;
+                    }
+                }
+                closeP();
+                push(LI, tagName, null);
+                append(ITEM, ITEM.length);
+                break;
+            case BR:
+                reconstruct();
+                append(NEWLINE, NEWLINE.length);
+                return;
+            case HR:
+                closeP();
+                return;
+            case VOID:
+                reconstruct();
+                return;
+            case EMPTY:
+                return;
+            case RAW:
+                if (selfClosing) {
+                    throw UNSUPPORTED_MARKUP;
+                }
+                return;
+            default:
+                reconstruct();
+                push(OTHER, tagName, null);
+        }
+        if (selfClosing) {
+            endTag(kind, tagName);
+        }
+    }
+
+    private void endTag(byte kind, String tagName) {
+        switch (kind) {
+            case A:
+            case FORMAT:
+                adoptionAgency(tagName);
+                break;
+            case P:
+                int p = lastIndexOf(P);
+                if (p >= 0) {
+                    popTo(p);
+                } else {
+                    append(PARAGRAPH, PARAGRAPH.length); // an empty p is inserted and closed
+                }
+                break;
+            case HEADING:
+            case H6:
+                int h = Math.max(lastIndexOf(HEADING), lastIndexOf(H6));
+                if (h >= 0) {
+                    popTo(h);
+                }
+                break;
+            case LI:
+                endLi();
+                break;
+            case BLOCK:
+                int b = lastIndexOf(tagName);
+                if (b >= 0) {
+                    popTo(b);
+                }
+                break;
+            case BR:
+                reconstruct();
+                append(NEWLINE, NEWLINE.length);
+                break;
+            default:
+                anyOtherEndTag(tagName);
+        }
+    }
+
+    private void adoptionAgency(String tagName) {
+        int a = activeIndex(tagName);
+        if (a < 0) {
+            anyOtherEndTag(tagName);
+            return;
+        }
+        int i = stackIndex(activeIds[a]);
+        if (i < 0) {
+            removeActive(a);
+            return;
+        }
+        for (int j = i + 1; j < depth; j++) {
+            if (isSpecial(kinds[j])) {
+                throw UNSUPPORTED_MARKUP; // a furthest block, the tree gets restructured
+            }
+        }
+        popTo(lastIndexOf(tagName));
+        removeActive(a);
+    }
+
+    private void anyOtherEndTag(String tagName) {
+        for (int i = depth - 1; i >= 0; i--) {
+            if (names[i].equals(tagName)) {
+                popTo(i);
+                return;
+            }
+            if (isSpecial(kinds[i])) {
+                return;
+            }
+        }
+    }
+
+    private void closeP() {
+        int p = lastIndexOf(P);
+        if (p >= 0) {
+            popTo(p);
+        }
+    }
+
+    // only if the li is in list item scope
+    private void endLi() {
+        for (int i = depth - 1; i >= 0; i--) {
+            if (kinds[i] == LI) {
+                popTo(i);
+                return;
+            }
+            if (names[i].equals("ol") || names[i].equals("ul")) {
+                return;
+            }
+        }
+    }
+
+    private static boolean isSpecial(byte kind) {
+        return kind >= P;
+    }
+
+    private void push(byte kind, String tagName, String href) {
+        if (depth == kinds.length) {
+            kinds = Arrays.copyOf(kinds, depth * 2);
+            names = Arrays.copyOf(names, depth * 2);
+            hrefs = Arrays.copyOf(hrefs, depth * 2);
+            ids = Arrays.copyOf(ids, depth * 2);
+        }
+        kinds[depth] = kind;
+        names[depth] = tagName;
+        hrefs[depth] = href;
+        ids[depth] = nextId++;
+        depth++;
+    }
+
+    // pops the element at i and everything above it
+    private void popTo(int i) {
+        while (depth > i + 1) {
+            if (kinds[depth - 1] == A) {
+                throw UNSUPPORTED_MARKUP; // would be reconstructed as a second link
+            }
+            pop();
+        }
+        pop();
+    }
+
+    // the element is complete, HtmlToPlainText.FormattingVisitor.tail
+    private void pop() {
+        depth--;
+        byte kind = kinds[depth];
+        if (kind == P || kind == HEADING) {
+            append(PARAGRAPH, PARAGRAPH.length);
+        } else if (kind == A) {
+            link(hrefs[depth]);
+        }
+        hrefs[depth] = null;
+    }
+
+    private int lastIndexOf(byte kind) {
+        for (int i = depth - 1; i >= 0; i--) {
+            if (kinds[i] == kind) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int lastIndexOf(String tagName) {
+        for (int i = depth - 1; i >= 0; i--) {
+            if (names[i].equals(tagName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int stackIndex(int id) {
+        for (int i = depth - 1; i >= 0; i--) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int activeIndex(String tagName) {
+        for (int i = active - 1; i >= 0; i--) {
+            if (activeNames[i].equals(tagName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void addActive(String tagName) {
+        int same = 0;
+        for (int i = 0; i < active; i++) {
+            if (activeNames[i].equals(tagName)) {
+                same++;
+            }
+        }
+        if (same >= 3) {
+            throw UNSUPPORTED_MARKUP; // Noah's Ark clause compares attributes
+        }
+        if (active == activeIds.length) {
+            activeIds = Arrays.copyOf(activeIds, active * 2);
+            activeNames = Arrays.copyOf(activeNames, active * 2);
+        }
+        activeIds[active] = ids[depth - 1];
+        activeNames[active] = tagName;
+        active++;
+    }
+
+    private void removeActive(int i) {
+        System.arraycopy(activeIds, i + 1, activeIds, i, active - i - 1);
+        System.arraycopy(activeNames, i + 1, activeNames, i, active - i - 1);
+        active--;
+    }
+
+    // formatting elements that were closed implicitly are opened again
+    private void reconstruct() {
+        if (active == 0 || stackIndex(activeIds[active - 1]) >= 0) {
+            return;
+        }
+        int i = active - 1;
+        while (i > 0 && stackIndex(activeIds[i - 1]) < 0) {
+            i--;
+        }
+        for (; i < active; i++) {
+            if (activeNames[i].equals("a")) {
+                throw UNSUPPORTED_MARKUP;
+            }
+            push(FORMAT, activeNames[i], null);
+            activeIds[i] = ids[depth - 1];
+        }
+    }
+
+    // -- text nodes and HtmlToPlainText ------------------------------------
+    private void textChar(char c) {
+        if (isWhite(c)) {
+            if (textWhite) {
+                return;
+            }
+            c = ' ';
+            textWhite = true;
+        } else {
+            textWhite = false;
+        }
+        if (textLength == text.length) {
+            text = Arrays.copyOf(text, textLength * 2);
+        }
+        text[textLength++] = c;
+    }
+
+    private void textCodePoint(int cp) {
+        if (Character.isBmpCodePoint(cp)) {
+            textChar((char) cp);
+        } else {
+            textChar(Character.highSurrogate(cp));
+            textChar(Character.lowSurrogate(cp));
+        }
+    }
+
+    private void flushText() {
+        if (textLength > 0) {
+            reconstruct();
+            append(text, textLength);
+            textLength = 0;
+            textWhite = false;
+        }
+    }
+
+    private void link(String href) {
+        String abs = "";
+        if (href != null) {
+            try {
+                abs = new URL(href).toExternalForm(); // the base uri is empty
+            } catch (MalformedURLException ex) {
+                abs = "";
+            }
+        }
+        int length = abs.length() + 3;
+        if (url.length < length) {
+            url = new char[length * 2];
+        }
+        url[0] = ' ';
+        url[1] = '<';
+        abs.getChars(0, abs.length(), url, 2);
+        url[length - 1] = '>';
+        append(url, length);
+    }
+
+    // FormattingVisitor.append, feeding the tokens instead of a StringBuilder
+    private void append(char[] s, int length) {
+        if (length > 0 && s[0] == '\n') {
+            width = 0;
+        }
+        if (length == 1 && s[0] == ' ' && (accumEmpty || last == ' ' || last == '\n')) {
+            return;
+        }
+        if (length + width <= MAX_WIDTH) {
+            for (int i = 0; i < length; i++) {
+                emit(s[i]);
+            }
+            width += length;
+            return;
+        }
+        // text.split("\\s+"): a leading empty word, no trailing ones
+        int e = length;
+        while (e > 0 && isSplit(s[e - 1])) {
+            e--;
+        }
+        int i = 0;
+        while (i < e) {
+            int start = i;
+            while (i < e && !isSplit(s[i])) {
+                i++;
+            }
+            boolean lastWord = i == e;
+            int wordLength = i - start + (lastWord ? 0 : 1);
+            if (wordLength + width > MAX_WIDTH) {
+                emit('\n');
+                width = wordLength;
+            } else {
+                width += wordLength;
+            }
+            for (int j = start; j < i; j++) {
+                emit(s[j]);
+            }
+            if (!lastWord) {
+                emit(' ');
+            }
+            while (i < e && isSplit(s[i])) {
+                i++;
+            }
+        }
+    }
+
+    // toLowerCase().split("[^a-zäöüß]+")
+    private void emit(char c) {
+        last = c;
+        accumEmpty = false;
+        if (c == '\u0130') { // capital I with dot lowercases to an i and a combining dot
+            tokenChar('i');
+            endToken();
+            return;
+        }
+        char l = Character.toLowerCase(c);
+        if ((l >= 'a' && l <= 'z') || l == 'ä' || l == 'ö' || l == 'ü' || l == 'ß') {
+            tokenChar(l);
+        } else {
+            endToken();
+        }
+    }
+
+    private void tokenChar(char c) {
+        if (charsLength == chars.length) {
+            chars = Arrays.copyOf(chars, charsLength * 2);
+        }
+        chars[charsLength++] = c;
+    }
+
+    private void endToken() {
+        if (charsLength > tokenStart) {
+            if (tokens == ends.length) {
+                ends = Arrays.copyOf(ends, tokens * 2);
+            }
+            ends[tokens++] = charsLength;
+            tokenStart = charsLength;
+        }
+    }
+
+    // -- chars ---------------------------------------------------------------
+    // index of the current name in NAMES, or < 0
+    private int lookup() {
+        int lo = 0, hi = NAMES.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(NAMES[mid]);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(String s) {
+        int n = Math.min(s.length(), nameLength);
+        for (int i = 0; i < n; i++) {
+            if (s.charAt(i) != name[i]) {
+                return s.charAt(i) - name[i];
+            }
+        }
+        return s.length() - nameLength;
+    }
+
+    // StringUtil.isWhitespace
+    private static boolean isWhite(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r';
+    }
+
+    // \s
+    private static boolean isSplit(char c) {
+        return isWhite(c) || c == '\u000B';
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    // a window on the token buffer
+    private static class Slice implements CharSequence {
+
+        private char[] chars;
+        private int start;
+        private int length;
+
+        Slice of(char[] chars, int start, int end) {
+            this.chars = chars;
+            this.start = start;
+            this.length = end - start;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return chars[start + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return new String(chars, start + from, to - from);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, start, length);
+        }
+    }
+
+    // compares the tokens with Utils.getAllContent, returns the number of entries that differ
+    static int verify(Stream<Entry> entries) {
+        Tokenizer tokenizer = new Tokenizer();
+        AtomicInteger checked = new AtomicInteger();
+        AtomicInteger differ = new AtomicInteger();
+        entries.forEach(e -> {
+            List<String> expected = Utils.getAllContent(e);
+            List<String> actual = new ArrayList<>();
+            tokenizer.tokenize(e, t -> actual.add(t.toString()));
+            checked.incrementAndGet();
+            if (!expected.equals(actual)) {
+                if (differ.incrementAndGet() <= 10) {
+                    log.warn("tokens differ for " + e.id + ":\n" + expected + "\n" + actual);
+                }
+            }
+        });
+        log.info(String.format("verified %d entries, %d differ, %d fields parsed by jsoup",
+                checked.get(), differ.get(), tokenizer.getFallbacks()));
+        return differ.get();
+    }
+}
@@ -0,0 +1,88 @@
+package de.locked.feedly;
+
+// Keeps the k most decisive word probabilities of a doc, i.e. the ones
+// farthest from .5, in a bounded min-heap and combines them in log-odds space.
+// On equal distance the earlier word wins, just like a stable sort would.
+// O(n log k) per doc, no allocation after construction. Not thread safe.
+class TopWords {
+
+    private final double[] dist; // heap keyed by distance from .5, then by arrival
+    private final int[] seq;
+    private final double[] logit;
+    private int n = 0;
+    private int count = 0;
+
+    TopWords(int k) {
+        dist = new double[k];
+        seq = new int[k];
+        logit = new double[k];
+    }
+
+    void clear() {
+        n = 0;
+        count = 0;
+    }
+
+    // true if heap slot i is less decisive than (d, s)
+    private boolean below(int i, double d, int s) {
+        return dist[i] < d || (dist[i] == d && seq[i] > s);
+    }
+
+    private void set(int i, double d, int s, double p) {
+        dist[i] = d;
+        seq[i] = s;
+        logit[i] = Math.log(p / (1 - p));
+    }
+
+    private void move(int from, int to) {
+        dist[to] = dist[from];
+        seq[to] = seq[from];
+        logit[to] = logit[from];
+    }
+
+    void offer(double p) {
+        double d = Math.abs(p - .5);
+        int s = count++;
+        if (d == 0) { // neutral words don't change the result
+            return;
+        }
+        if (n < dist.length) {
+            int i = n++;
+            while (i > 0) { // sift up
+                int parent = (i - 1) >>> 1;
+                if (below(parent, d, s)) {
+                    break;
+                }
+                move(parent, i);
+                i = parent;
+            }
+            set(i, d, s, p);
+        } else if (below(0, d, s)) {
+            int i = 0;
+            while (true) { // sift down
+                int child = 2 * i + 1;
+                if (child >= n) {
+                    break;
+                }
+                if (child + 1 < n && below(child + 1, dist[child], seq[child])) {
+                    child++;
+                }
+                if (!below(child, d, s)) {
+                    break;
+                }
+                move(child, i);
+                i = child;
+            }
+            set(i, d, s, p);
+        }
+    }
+
+    // p / (p + np) with p = prod(p_i) and np = prod(1 - p_i), without underflow
+    double probability() {
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += logit[i];
+        }
+        return 1 / (1 + Math.exp(-sum));
+    }
+}
@@ -0,0 +1,208 @@
+package de.locked.feedly;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.fluent.Executor;
+import org.apache.http.client.fluent.Request;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+// One pooled keep-alive HTTP client for all Feedly calls.
+// Responses are requested gzip encoded and decoded transparently by HttpClient.
+// All requests go through one RequestScheduler to stay inside Feedly's request budget,
+// 429 and 5xx responses are retried there.
+// Requests, received bytes (on the wire, before decompression) and the latency up to
+// the response headers are recorded in Metrics per endpoint.
+class Transport {
+
+    private static final Logger log = LogManager.getLogger(Transport.class);
+    private static final int CONNECT_TIMEOUT = Integer.getInteger("feedly.connectTimeout", 10000);
+    private static final int READ_TIMEOUT = Integer.getInteger("feedly.readTimeout", 120000);
+    private static final double REQUESTS_PER_SECOND = Double.parseDouble(System.getProperty("feedly.requestsPerSecond", "2"));
+    private static final String STARTED = "feedly.started";
+
+    static final Transport SHARED = new Transport();
+
+    private final Executor executor;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final RequestScheduler scheduler;
+
+    Transport() {
+        this(new RequestScheduler(new File(RequestScheduler.FILE), REQUESTS_PER_SECOND));
+    }
+
+    Transport(RequestScheduler scheduler) {
+        this.scheduler = scheduler;
+        PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+        connections.setMaxTotal(16);
+        connections.setDefaultMaxPerRoute(8);
+        RequestConfig config = RequestConfig.custom()
+                .setConnectTimeout(CONNECT_TIMEOUT)
+                .setSocketTimeout(READ_TIMEOUT)
+                .build();
+        executor = Executor.newInstance(HttpClients.custom()
+                .setConnectionManager(connections)
+                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                .setDefaultRequestConfig(config)
+                .addInterceptorFirst((HttpRequest request, HttpContext context) -> context.setAttribute(STARTED, System.nanoTime()))
+                .addInterceptorFirst(Transport::measure) // runs before the response is decompressed
+                .build()); // content compression is enabled by default
+    }
+
+    private static void measure(HttpResponse response, HttpContext context) {
+        HttpRequest request = HttpCoreContext.adapt(context).getRequest();
+        String method = request.getRequestLine().getMethod();
+        String endpoint = endpoint(request.getRequestLine().getUri());
+        Object started = context.getAttribute(STARTED);
+        if (started != null) {
+            Metrics.RUN.observe("http_request_duration", (System.nanoTime() - (Long) started) / 1e9,
+                    "endpoint", endpoint, "method", method);
+        }
+        Metrics.RUN.count("http_requests", 1, "endpoint", endpoint, "method", method,
+                "status", Integer.toString(response.getStatusLine().getStatusCode()));
+        HttpEntity entity = response.getEntity();
+        if (entity != null) {
+            response.setEntity(new HttpEntityWrapper(entity) {
+                @Override
+                public InputStream getContent() throws IOException {
+                    return new FilterInputStream(super.getContent()) {
+                        private long received = 0; // not yet counted, reported at the end or on close
+
+                        @Override
+                        public int read() throws IOException {
+                            int b = super.read();
+                            if (b >= 0) {
+                                received++;
+                            } else {
+                                report();
+                            }
+                            return b;
+                        }
+
+                        @Override
+                        public int read(byte[] buf, int off, int len) throws IOException {
+                            int n = super.read(buf, off, len);
+                            if (n > 0) {
+                                received += n;
+                            } else if (n < 0) {
+                                report();
+                            }
+                            return n;
+                        }
+
+                        @Override
+                        public void close() throws IOException {
+                            try {
+                                super.close();
+                            } finally {
+                                report();
+                            }
+                        }
+
+                        private void report() {
+                            if (received > 0) {
+                                Metrics.RUN.count("http_received_bytes", received, "endpoint", endpoint);
+                                received = 0;
+                            }
+                        }
+                    };
+                }
+            });
+        }
+    }
+
+    // the API path without ids: streams/contents, markers/reads, tags, ...
+    static String endpoint(String uri) {
+        String path = URI.create(uri).getRawPath();
+        if (path == null) {
+            return "unknown";
+        }
+        int v3 = path.indexOf("/v3/");
+        String[] parts = path.substring(v3 >= 0 ? v3 + 4 : 1).split("/");
+        if (parts.length > 1 && (parts[0].equals("streams") || parts[0].equals("markers"))) {
+            return parts[0] + "/" + parts[1];
+        }
+        return parts[0];
+    }
+
+    // Sends the request when the scheduler allows it and hands the response to the handler.
+    // 429 and 5xx responses never reach the handler, they are retried until the scheduler
+    // gives up with RequestScheduler.Deferred.
+    <T> T execute(Request request, RequestScheduler.Priority priority, ResponseHandler<T> handler) throws IOException {
+        request.connectTimeout(CONNECT_TIMEOUT).socketTimeout(READ_TIMEOUT);
+        for (int attempt = 1;; attempt++) {
+            scheduler.acquire(priority);
+            log.info("Request #" + requests.incrementAndGet() + ", " + request);
+            final long[] refused = {0, -1}; // status and Retry-After in ms of a response to retry
+            T result = executor.execute(request).handleResponse(response -> {
+                int status = response.getStatusLine().getStatusCode();
+                if (status == 429 || status >= 500) {
+                    refused[0] = status;
+                    refused[1] = retryAfter(response.getFirstHeader("Retry-After"));
+                    EntityUtils.consume(response.getEntity());
+                    return null;
+                }
+                return handler.handleResponse(response);
+            });
+            if (refused[0] == 0) {
+                scheduler.succeeded();
+                return result;
+            }
+            int status = (int) refused[0];
+            long delay = scheduler.retry(attempt, status, refused[1]);
+            log.warn(String.format("%s: status %d, retry %d in %.1fs", request, status, attempt, delay / 1000d));
+            Metrics.RUN.count("http_retries", 1, "endpoint", endpoint(request.toString().split(" ")[1]),
+                    "status", Integer.toString(status));
+            if (status != 429) { // a 429 pauses in the scheduler, for everybody
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while backing off");
+                }
+            }
+        }
+    }
+
+    // seconds or an HTTP date, 0 if missing or unreadable
+    static long retryAfter(Header header) {
+        if (header == null) {
+            return 0;
+        }
+        String value = header.getValue().trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException ex) {
+            Date date = DateUtils.parseDate(value);
+            return date == null ? 0 : Math.max(0, date.getTime() - System.currentTimeMillis());
+        }
+    }
+
+    RequestScheduler getScheduler() {
+        return scheduler;
+    }
+
+    int getRequests() {
+        return requests.get();
+    }
+}
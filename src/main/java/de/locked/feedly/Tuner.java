@@ -0,0 +1,242 @@
+package de.locked.feedly;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.DoubleSummaryStatistics;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+// Successive halving over BayesCfg candidates: all of them are scored on a few folds of
+// a CrossValidation, the best 1/eta go on to eta times as many folds, and so on until the
+// survivors have seen every fold. Most configs are dropped after a fraction of the folds.
+// Candidates are drawn from ranges (-Dfeedly.tune.minDoc=1:3, .maxDocP=0.9:0.99, .minP=0:0.06)
+// by Latin hypercube sampling with a fixed seed, so a restarted search draws the same ones.
+// The F measure of every fold and config is kept in a cache file (-Dfeedly.tune.cache),
+// written after every rung, an interrupted search resumes from there. The cache belongs to one corpus, tag list and
+// fold count, it starts over when its fingerprint does not match anymore.
+class Tuner {
+
+    private static final Logger log = LogManager.getLogger(Tuner.class);
+    private static final Gson gson = new GsonBuilder().serializeSpecialFloatingPointValues().create();
+    static final String CACHE = System.getProperty("feedly.tune.cache", "tune-cache.json");
+    static final int CONFIGS = Integer.getInteger("feedly.tune.configs", 64);
+    static final long SEED = Long.getLong("feedly.tune.seed", 1);
+    private static final int ETA = Math.max(2, Integer.getInteger("feedly.tune.eta", 2));
+    private static final int MIN_FOLDS = Integer.getInteger("feedly.tune.minFolds", 2);
+
+    // closed interval, "lo:hi" or a single value
+    static class Range {
+
+        final double lo;
+        final double hi;
+
+        Range(double lo, double hi) {
+            this.lo = Math.min(lo, hi);
+            this.hi = Math.max(lo, hi);
+        }
+
+        static Range parse(String s) {
+            String[] parts = s.split(":");
+            return new Range(Double.parseDouble(parts[0]), Double.parseDouble(parts[parts.length - 1]));
+        }
+
+        static Range of(String property, String def) {
+            return parse(System.getProperty(property, def));
+        }
+
+        // at x in [0, 1)
+        double at(double x) {
+            return lo + x * (hi - lo);
+        }
+    }
+
+    static class Result {
+
+        final BayesCfg cfg;
+        final double f; // mean over the folds where it is defined
+        final int folds;
+
+        Result(BayesCfg cfg, double f, int folds) {
+            this.cfg = cfg;
+            this.f = f;
+            this.folds = folds;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("F-Measure: %.03f on %d folds with %s", f, folds, cfg);
+        }
+    }
+
+    // persisted
+    private static class Cache {
+
+        String fingerprint;
+        Map<String, Double> f = new HashMap<>(); // fold + " " + cfg -> F measure
+    }
+
+    private final CrossValidation cv;
+    private final double threshold;
+    private final File file;
+    private final String fingerprint;
+    private Cache cache = new Cache();
+
+    Tuner(Corpus corpus, List<String> tags, int folds, double threshold, File file) {
+        this.cv = new CrossValidation(corpus, tags, folds);
+        this.threshold = threshold;
+        this.file = file;
+        this.fingerprint = fingerprint(corpus, tags, folds, threshold);
+        if (file.exists()) {
+            try {
+                Cache stored = gson.fromJson(new String(Files.readAllBytes(file.toPath())), Cache.class);
+                if (stored != null && fingerprint.equals(stored.fingerprint) && stored.f != null) {
+                    cache = stored;
+                    log.info("resuming with " + cache.f.size() + " cached fold results");
+                } else {
+                    log.info("the corpus changed, ignoring the cached fold results");
+                }
+            } catch (IOException | RuntimeException ex) {
+                log.warn("ignoring unreadable tuning cache " + file, ex);
+            }
+        }
+        cache.fingerprint = fingerprint;
+    }
+
+    // docs in any order, with their labels and updated timestamps
+    private static String fingerprint(Corpus corpus, List<String> tags, int folds, double threshold) {
+        long docs = corpus.docs()
+                .mapToLong(d -> 31L * (31L * d.id.hashCode() + Long.hashCode(d.updated)) + CrossValidation.label(d).hashCode())
+                .map(h -> h * 0x9e3779b97f4a7c15L)
+                .sum();
+        return String.format("%d docs %x, %d words, tags %s, %d folds, threshold %s",
+                corpus.getDocs().size(), docs, corpus.getVocabulary().size(), tags, folds, threshold);
+    }
+
+    // n configs spread over the ranges: every range is cut into n strata and every stratum
+    // of a range is used once, in a random pairing (Latin hypercube)
+    static List<BayesCfg> candidates(int n, long seed, Range minDoc, Range maxDocP, Range minP) {
+        Random random = new Random(seed);
+        int[][] strata = new int[3][];
+        for (int r = 0; r < strata.length; r++) {
+            List<Integer> order = IntStream.range(0, n).boxed().collect(Collectors.toList());
+            Collections.shuffle(order, random);
+            strata[r] = order.stream().mapToInt(Integer::intValue).toArray();
+        }
+        List<BayesCfg> candidates = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int doc = (int) Math.floor(new Range(minDoc.lo, minDoc.hi + 1).at((strata[0][i] + random.nextDouble()) / n));
+            double docP = round(maxDocP.at((strata[1][i] + random.nextDouble()) / n));
+            double p = round(minP.at((strata[2][i] + random.nextDouble()) / n));
+            candidates.add(new BayesCfg(Math.min(doc, (int) minDoc.hi), docP, p));
+        }
+        return candidates;
+    }
+
+    private static double round(double d) {
+        return Math.round(d * 1e4) / 1e4;
+    }
+
+    // all candidates ranked by the folds they got to, best first
+    List<Result> search(List<BayesCfg> candidates, ForkJoinPool pool) throws IOException {
+        int folds = cv.getFolds();
+        List<BayesCfg> alive = new ArrayList<>(candidates);
+        Map<BayesCfg, Result> results = new HashMap<>();
+        int k = Math.max(1, Math.min(MIN_FOLDS, folds));
+        for (int rung = 1;; rung++) {
+            final long a = System.currentTimeMillis();
+            evaluate(alive, k, pool);
+            List<Result> ranked = new ArrayList<>();
+            for (BayesCfg cfg : alive) {
+                Result r = result(cfg, k);
+                results.put(cfg, r);
+                ranked.add(r);
+            }
+            ranked.sort(Comparator.comparingDouble((Result r) -> Double.isNaN(r.f) ? Double.NEGATIVE_INFINITY : r.f).reversed());
+            log.info(String.format("rung %d: %d configs on %d/%d folds in %.2fs, best %s",
+                    rung, alive.size(), k, folds, (System.currentTimeMillis() - a) / 1000d, ranked.get(0)));
+            if (k == folds) {
+                break;
+            }
+            int keep = Math.max(1, (alive.size() + ETA - 1) / ETA);
+            alive = ranked.subList(0, keep).stream().map(r -> r.cfg).collect(Collectors.toList());
+            k = Math.min(folds, k * ETA);
+        }
+        List<Result> all = new ArrayList<>(results.values());
+        all.sort(Comparator.comparingInt((Result r) -> r.folds)
+                .thenComparingDouble(r -> Double.isNaN(r.f) ? Double.NEGATIVE_INFINITY : r.f).reversed());
+        return all;
+    }
+
+    // The folds 0 .. k-1 of every config that are not cached yet. One fold is built at a
+    // time and its configs are scored in parallel in the pool, as in CrossValidation.
+    // The cache is saved once the rung is done.
+    private void evaluate(List<BayesCfg> configs, int k, ForkJoinPool pool) throws IOException {
+        boolean changed = false;
+        for (int f = 0; f < k; f++) {
+            final int fold = f;
+            List<BayesCfg> missing = configs.stream()
+                    .filter(cfg -> get(fold, cfg) == null)
+                    .collect(Collectors.toList());
+            if (missing.isEmpty()) {
+                continue;
+            }
+            double[] scores;
+            try {
+                scores = pool.submit(() -> cv.evaluate(fold, missing, threshold)).get();
+            } catch (InterruptedException | ExecutionException ex) {
+                throw new IOException("tuning failed", ex);
+            }
+            for (int c = 0; c < scores.length; c++) {
+                cache.f.put(key(fold, missing.get(c)), scores[c]);
+            }
+            changed = true;
+        }
+        if (changed) {
+            try {
+                save();
+            } catch (IOException ex) {
+                log.warn("cannot save the tuning cache", ex);
+            }
+        }
+    }
+
+    private Double get(int fold, BayesCfg cfg) {
+        return cache.f.get(key(fold, cfg));
+    }
+
+    private Result result(BayesCfg cfg, int k) {
+        DoubleSummaryStatistics stats = new DoubleSummaryStatistics();
+        for (int fold = 0; fold < k; fold++) {
+            double f = get(fold, cfg);
+            if (!Double.isNaN(f)) {
+                stats.accept(f);
+            }
+        }
+        return new Result(cfg, stats.getCount() == 0 ? Double.NaN : stats.getAverage(), k);
+    }
+
+    private static String key(int fold, BayesCfg cfg) {
+        return fold + " " + cfg;
+    }
+
+    private void save() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), gson.toJson(cache).getBytes());
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -156,6 +156,17 @@ public class Utils {
         return false;
     }
 
+    static boolean containsTagId(Tag[] tags, String id) {
+        if (tags != null) {
+            for (Tag t : tags) {
+                if (id.equals(t.id)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     static boolean untagged(Tag[] tags) {
         if (tags != null) {
             for (Tag tag : tags) {
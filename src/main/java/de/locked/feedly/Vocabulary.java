@@ -0,0 +1,93 @@
+package de.locked.feedly;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// maps every distinct token to a dense int id so that documents can be held as int[]
+// Lookups take any CharSequence, so a reused buffer can be resolved without
+// creating a String for words that are already known.
+class Vocabulary {
+
+    private int[] slots = new int[1024]; // id + 1, 0 is free
+    private final List<String> words = new ArrayList<>();
+
+    synchronized int id(CharSequence word) {
+        int slot = slot(word);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+        int id = words.size();
+        words.add(word.toString());
+        slots[slot] = id + 1;
+        if (words.size() * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    // id of a known word or -1, never adds to the vocabulary
+    synchronized int find(CharSequence word) {
+        return slots[slot(word)] - 1;
+    }
+
+    synchronized String word(int id) {
+        return words.get(id);
+    }
+
+    synchronized int size() {
+        return words.size();
+    }
+
+    // the slot holding the word or the free slot where it belongs
+    private int slot(CharSequence word) {
+        int mask = slots.length - 1;
+        int i = mix(hash(word)) & mask;
+        while (slots[i] != 0 && !equal(words.get(slots[i] - 1), word)) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < words.size(); id++) {
+            int i = mix(words.get(id).hashCode()) & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = id + 1;
+        }
+    }
+
+    // same as String.hashCode, which is cached for the stored words
+    private static int hash(CharSequence s) {
+        if (s instanceof String) {
+            return s.hashCode();
+        }
+        int h = 0;
+        for (int i = 0; i < s.length(); i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h;
+    }
+
+    private static int mix(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equal(String word, CharSequence s) {
+        if (s instanceof String) {
+            return word.equals(s);
+        }
+        if (word.length() != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (word.charAt(i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
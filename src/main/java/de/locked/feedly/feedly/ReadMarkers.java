@@ -0,0 +1,9 @@
+package de.locked.feedly.feedly;
+
+// https://developer.feedly.com/v3/markers/#get-the-latest-read-operations-to-sync-local-cache
+public class ReadMarkers {
+
+    public String[] entries; // read since newerThan
+    public String[] unread; // kept unread since newerThan
+    public long updated;
+}
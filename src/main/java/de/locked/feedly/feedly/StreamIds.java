@@ -0,0 +1,8 @@
+package de.locked.feedly.feedly;
+
+// https://developer.feedly.com/v3/streams/#get-a-list-of-entry-ids-for-a-specific-stream
+public class StreamIds {
+
+    public String[] ids;
+    public String continuation;
+}
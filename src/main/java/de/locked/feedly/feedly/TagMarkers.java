@@ -0,0 +1,9 @@
+package de.locked.feedly.feedly;
+
+import java.util.Map;
+
+// https://developer.feedly.com/v3/markers/#get-the-latest-tagged-entry-ids
+public class TagMarkers {
+
+    public Map<String, String[]> taggedEntries; // tag id -> entry ids
+}
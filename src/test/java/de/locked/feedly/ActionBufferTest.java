@@ -0,0 +1,104 @@
+package de.locked.feedly;
+
+import de.locked.feedly.feedly.Tag;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// A batch that Feedly refuses must stay pending, also in the file, until it is sent or
+// ran out of attempts.
+public class ActionBufferTest {
+
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    // refuses the first calls, records the accepted ones
+    private static class Stub extends Feedly {
+
+        int refuse;
+        final List<String> tagged = new ArrayList<>();
+        final List<String> read = new ArrayList<>();
+
+        Stub(int refuse) {
+            super("token", null, "http://localhost/v3/");
+            this.refuse = refuse;
+        }
+
+        @Override
+        boolean tagEntries(List<String> entryIds, Tag tag) {
+            if (refuse-- > 0) {
+                return false;
+            }
+            for (String id : entryIds) {
+                tagged.add(tag.id + " " + id);
+            }
+            return true;
+        }
+
+        @Override
+        boolean markAsread(List<String> entryIds) {
+            if (refuse-- > 0) {
+                return false;
+            }
+            read.addAll(entryIds);
+            return true;
+        }
+    }
+
+    private static Tag tag(String name) {
+        Tag tag = new Tag();
+        tag.id = "user/1/tag/" + name;
+        tag.label = name;
+        return tag;
+    }
+
+    @Test
+    public void refusedBatchesAreSentByALaterFlush() throws Exception {
+        File file = new File(dir.getRoot(), "pending.json");
+        Stub feedly = new Stub(2); // the tag and the read batch
+        ActionBuffer actions = new ActionBuffer(feedly, 10, file);
+        actions.tag("a", tag("java"), "a java");
+        actions.tag("b", tag("java"), "b java");
+        actions.markAsRead("a");
+        actions.flush();
+        assertFalse(actions.isTagged("a", tag("java")));
+        assertFalse(actions.isRead("a"));
+        assertEquals(3, actions.size());
+        assertTrue(file.exists());
+
+        actions = new ActionBuffer(feedly, 10, file); // the next run
+        assertEquals(3, actions.size());
+        actions.flush();
+        assertEquals(Arrays.asList("user/1/tag/java a", "user/1/tag/java b"), feedly.tagged);
+        assertEquals(Arrays.asList("a"), feedly.read);
+        assertTrue(actions.isTagged("b", tag("java")));
+        assertTrue(actions.isRead("a"));
+        assertEquals(0, actions.size());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void refusedActionsAreGivenUpAfterTheirAttempts() throws Exception {
+        File file = new File(dir.getRoot(), "pending.json");
+        Stub feedly = new Stub(Integer.MAX_VALUE);
+        ActionBuffer actions = new ActionBuffer(feedly, 10, file);
+        actions.tag("a", tag("java"), "a java");
+        actions.markAsRead("a");
+        for (int attempt = 1; attempt < 3; attempt++) {
+            actions.flush();
+            assertEquals(2, actions.size());
+            actions = new ActionBuffer(feedly, 10, file);
+        }
+        actions.flush();
+        assertEquals(0, actions.size());
+        assertFalse(file.exists());
+        assertTrue(feedly.tagged.isEmpty() && feedly.read.isEmpty());
+    }
+}
@@ -0,0 +1,195 @@
+package de.locked.feedly;
+
+import de.locked.feedly.feedly.Category;
+import de.locked.feedly.feedly.Entry;
+import de.locked.feedly.feedly.Origin;
+import de.locked.feedly.feedly.Tag;
+import de.locked.feedly.feedly.TypeHref;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Synthetic Feedly entries that look like the real ones: html summaries and
+// contents with links, markup and entities, keywords, categories and tags.
+// Words follow a Zipf distribution and every tag prefers its own topic words,
+// so the classifiers have something to learn. Same seed, same entries.
+// Used by the benchmarks and by FeedlyStandIn.
+class EntryGenerator {
+
+    static final String[] TAGS = {"linux", "java", "raspberry", "fussball", "politik", "wissenschaft"};
+    private static final String[] SYLLABLES = {"ka", "te", "ri", "so", "nu", "ma", "lo", "be", "ge", "in",
+        "ter", "ung", "sch", "ver", "ä", "ö", "ü", "ß", "st", "ch", "en", "er", "an", "pro", "da", "ta"};
+    private static final String[] FEEDS = {"Heise", "Golem", "Spiegel", "Kicker", "Hacker News", "LWN"};
+
+    private final Random random;
+    private final String[] words;
+    private final double[] cumulative;
+    private final int categories;
+    private int next = 0;
+
+    EntryGenerator(long seed, int vocabulary, int categories) {
+        random = new Random(seed);
+        this.categories = categories;
+        words = new String[vocabulary];
+        for (int i = 0; i < vocabulary; i++) {
+            words[i] = word(i);
+        }
+        cumulative = new double[vocabulary];
+        double sum = 0;
+        for (int i = 0; i < vocabulary; i++) {
+            sum += 1d / (i + 1);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < vocabulary; i++) {
+            cumulative[i] /= sum;
+        }
+    }
+
+    EntryGenerator(long seed) {
+        this(seed, 20000, 4);
+    }
+
+    List<Entry> entries(int n) {
+        List<Entry> entries = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            entries.add(entry());
+        }
+        return entries;
+    }
+
+    Entry entry() {
+        int id = next++;
+        int tag = random.nextInt(TAGS.length * 2) - TAGS.length; // half of the entries are untagged
+        Entry e = new Entry();
+        e.id = "entry/" + Long.toHexString(random.nextLong()) + "_" + id;
+        e.originId = "http://" + FEEDS[id % FEEDS.length].toLowerCase().replace(' ', '-') + ".example.com/artikel/" + id;
+        e.title = sentence(tag, 4 + random.nextInt(8));
+        e.origin = new Origin();
+        e.origin.title = FEEDS[id % FEEDS.length];
+        e.summary.content = html(tag, 40 + random.nextInt(120));
+        e.content.content = random.nextBoolean() ? html(tag, 200 + random.nextInt(800)) : null;
+        e.keywords = new String[]{topicWord(Math.max(tag, 0)), topicWord(Math.max(tag, 0))};
+        Category category = new Category();
+        category.id = categoryId(id % categories);
+        category.label = "Kategorie " + (id % categories);
+        e.categories = new Category[]{category};
+        TypeHref alternate = new TypeHref();
+        alternate.href = e.originId + "?utm_source=feed&utm_medium=rss";
+        e.alternate = new TypeHref[]{alternate};
+        e.unread = random.nextDouble() < 0.3;
+        List<Tag> tags = new ArrayList<>();
+        if (tag >= 0) {
+            Tag t = new Tag();
+            t.id = "user/1/tag/" + TAGS[tag];
+            t.label = TAGS[tag];
+            tags.add(t);
+        }
+        if (!e.unread) {
+            Tag read = new Tag();
+            read.id = "user/1/tag/global.read";
+            tags.add(read);
+        }
+        e.tags = tags.isEmpty() ? null : tags.toArray(new Tag[tags.size()]);
+        e.published = e.crawled = e.updated = 1420070400000L + id * 60000L;
+        return e;
+    }
+
+    static String categoryId(int i) {
+        return "user/1/category/" + i;
+    }
+
+    // paragraphs of sentences with the markup found in feeds
+    private String html(int tag, int words) {
+        StringBuilder sb = new StringBuilder();
+        while (words > 0) {
+            int n = Math.min(words, 10 + random.nextInt(50));
+            words -= n;
+            double r = random.nextDouble();
+            if (r < 0.1) {
+                sb.append("<ul>");
+                for (int i = 0; i < 3; i++) {
+                    sb.append("<li>").append(sentence(tag, n / 3 + 1)).append("</li>");
+                }
+                sb.append("</ul>\n");
+            } else if (r < 0.15) {
+                sb.append("<h2>").append(sentence(tag, 4)).append("</h2>\n");
+            } else if (r < 0.2) {
+                sb.append("<p><img src=\"http://img.example.com/").append(random.nextInt(1000))
+                        .append(".jpg\" alt=\"\" /></p>\n");
+            } else {
+                sb.append("<p>");
+                for (int i = 0; i < n; i++) {
+                    double m = random.nextDouble();
+                    String w = next(tag);
+                    if (m < 0.03) {
+                        sb.append("<a href=\"http://www.example.com/").append(w).append("?a=1&amp;b=2\">")
+                                .append(w).append("</a>");
+                    } else if (m < 0.06) {
+                        sb.append("<strong>").append(w).append("</strong>");
+                    } else if (m < 0.08) {
+                        sb.append("<em>").append(w).append("</em>");
+                    } else if (m < 0.1) {
+                        sb.append("&quot;").append(w).append("&quot;");
+                    } else if (m < 0.11) {
+                        sb.append(w).append("&nbsp;&amp;");
+                    } else if (m < 0.15) {
+                        sb.append(Character.toUpperCase(w.charAt(0))).append(w.substring(1));
+                    } else {
+                        sb.append(w);
+                    }
+                    sb.append(i == n - 1 ? "." : random.nextDouble() < 0.1 ? ", " : " ");
+                }
+                sb.append("</p>\n");
+            }
+        }
+        if (random.nextDouble() < 0.3) {
+            sb.append("<p>Der Beitrag <a href=\"http://feeds.example.com/~r/").append(random.nextInt(100000))
+                    .append("\">erschien zuerst</a> auf <b>").append(FEEDS[random.nextInt(FEEDS.length)])
+                    .append("</b>.</p><br clear=\"all\"/>");
+        }
+        return sb.toString();
+    }
+
+    private String sentence(int tag, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(next(tag));
+        }
+        return sb.toString();
+    }
+
+    // a common word or, now and then, one of the topic words of the tag
+    private String next(int tag) {
+        if (tag >= 0 && random.nextDouble() < 0.1) {
+            return topicWord(tag);
+        }
+        double r = random.nextDouble();
+        int lo = 0, hi = cumulative.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cumulative[mid] < r) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return words[lo];
+    }
+
+    private String topicWord(int tag) {
+        return words[100 + tag * 50 + random.nextInt(50)];
+    }
+
+    private static String word(int i) {
+        StringBuilder sb = new StringBuilder();
+        int n = i;
+        do {
+            sb.append(SYLLABLES[n % SYLLABLES.length]);
+            n /= SYLLABLES.length;
+        } while (n > 0);
+        return sb.toString();
+    }
+}
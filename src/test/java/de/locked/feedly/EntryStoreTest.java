@@ -0,0 +1,153 @@
+package de.locked.feedly;
+
+import com.google.gson.Gson;
+import de.locked.feedly.feedly.Entry;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// Entries must come back as they were put, across reopening, compaction and damaged records.
+public class EntryStoreTest {
+
+    private final Gson gson = new Gson();
+
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    @Test
+    public void entriesSurviveReopening() throws Exception {
+        List<Entry> entries = new EntryGenerator(1).entries(300);
+        EntryStore store = new EntryStore(dir.getRoot());
+        for (Entry e : entries) {
+            assertTrue(store.put(e));
+            assertFalse(store.put(e)); // unchanged
+        }
+        assertEquals(300, store.changes().size());
+        store.close();
+
+        store = new EntryStore(dir.getRoot());
+        assertStored(store, entries);
+        store.close();
+    }
+
+    @Test
+    public void compactionKeepsTheNewestVersions() throws Exception {
+        List<Entry> entries = new EntryGenerator(2).entries(300);
+        EntryStore store = new EntryStore(dir.getRoot());
+        for (int round = 0; round < 3; round++) {
+            for (Entry e : entries) {
+                e.updated++;
+                e.unread = round % 2 == 0;
+                store.put(e);
+            }
+        }
+        long before = segment().length();
+        store.compact();
+        assertTrue(segment().length() < before / 2);
+        assertEquals(1, segments().length);
+        assertStored(store, entries);
+        store.close();
+
+        store = new EntryStore(dir.getRoot());
+        assertStored(store, entries);
+        store.close();
+    }
+
+    @Test
+    public void tornTailIsCutOff() throws Exception {
+        List<Entry> entries = new EntryGenerator(3).entries(100);
+        EntryStore store = new EntryStore(dir.getRoot());
+        for (Entry e : entries.subList(0, 99)) {
+            store.put(e);
+        }
+        long intact = segment().length();
+        store.put(entries.get(99));
+        store.close();
+
+        // the header made it to the disk, the data did not
+        try (RandomAccessFile f = new RandomAccessFile(segment(), "rw")) {
+            f.seek(intact + 20);
+            f.write(new byte[(int) (f.length() - intact - 20)]);
+        }
+        store = new EntryStore(dir.getRoot());
+        assertEquals(intact, segment().length());
+        assertStored(store, entries.subList(0, 99));
+        store.put(entries.get(99));
+        store.close();
+
+        // the file ends in the middle of the record
+        try (RandomAccessFile f = new RandomAccessFile(segment(), "rw")) {
+            f.setLength(f.length() - 3);
+        }
+        store = new EntryStore(dir.getRoot());
+        assertEquals(intact, segment().length());
+        assertStored(store, entries.subList(0, 99));
+        store.close();
+    }
+
+    @Test
+    public void damagedRecordsAreSkipped() throws Exception {
+        List<Entry> entries = new EntryGenerator(4).entries(100);
+        EntryStore store = new EntryStore(dir.getRoot());
+        long end = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            store.put(entries.get(i));
+            if (i == 10) {
+                end = segment().length();
+            }
+        }
+        store.close();
+
+        try (RandomAccessFile f = new RandomAccessFile(segment(), "rw")) {
+            f.seek(end - 1); // last data byte of the 11th record
+            int b = f.read();
+            f.seek(end - 1);
+            f.write(b ^ 0xff);
+        }
+        List<Entry> intact = new ArrayList<>(entries);
+        Entry damaged = intact.remove(10);
+        store = new EntryStore(dir.getRoot());
+        assertEquals(99, store.entries().collect(Collectors.toList()).size());
+        assertFalse(store.get(damaged.id).isPresent());
+        assertStored(store, intact);
+
+        assertTrue(store.put(damaged));
+        assertStored(store, entries);
+        store.close();
+    }
+
+    private void assertStored(EntryStore store, List<Entry> entries) throws Exception {
+        assertEquals(entries.size(), store.size());
+        for (Entry e : entries) {
+            assertEquals(gson.toJson(e), gson.toJson(store.get(e.id).get()));
+        }
+        Map<String, String> streamed = new HashMap<>();
+        for (Entry e : store.entries().collect(Collectors.toList())) {
+            streamed.put(e.id, gson.toJson(e));
+        }
+        assertEquals(entries.size(), streamed.size());
+        for (Entry e : entries) {
+            assertEquals(gson.toJson(e), streamed.get(e.id));
+        }
+    }
+
+    private File[] segments() {
+        return dir.getRoot().listFiles((d, n) -> n.endsWith(".seg"));
+    }
+
+    private File segment() {
+        File[] files = segments();
+        assertEquals(1, files.length);
+        return files[0];
+    }
+}
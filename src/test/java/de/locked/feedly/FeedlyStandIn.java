@@ -0,0 +1,466 @@
+package de.locked.feedly;
+
+import com.google.common.base.Charsets;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import de.locked.feedly.feedly.Category;
+import de.locked.feedly.feedly.Entry;
+import de.locked.feedly.feedly.ReadMarkers;
+import de.locked.feedly.feedly.StreamIds;
+import de.locked.feedly.feedly.Tag;
+import de.locked.feedly.feedly.TagMarkers;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PropertyConfigurator;
+
+// A local stand-in for the parts of the Feedly API this project uses, so that whole
+// sync + train + tag runs can be load tested offline:
+// categories, tags, streams/contents (count, newerThan, continuation), tag PUT/DELETE,
+// markers POST and markers/reads, markers/tags. -Dfeedly.standIn.rateLimit answers 429 like the real API.
+// It serves either recorded fixtures (see App "record") or synthetic entries of
+// EntryGenerator, tag and read changes are kept in memory and show up in the markers,
+// except removed tags, which only show up in the tag streams.
+// Start it and point the app at it with -Dfeedly.baseUrl=http://localhost:8080/v3/
+public class FeedlyStandIn {
+
+    private static final Logger log = LogManager.getLogger(FeedlyStandIn.class);
+    private static final Gson gson = new Gson();
+    private static final int PORT = Integer.getInteger("feedly.standIn.port", 8080);
+    private static final int ENTRIES = Integer.getInteger("feedly.standIn.entries", 10000);
+    private static final int CATEGORIES = Integer.getInteger("feedly.standIn.categories", 4);
+    private static final long SEED = Long.getLong("feedly.standIn.seed", 42);
+    private static final int LATENCY = Integer.getInteger("feedly.standIn.latency", 0); // ms per request
+    private static final int JITTER = Integer.getInteger("feedly.standIn.jitter", 0); // ms, random on top of the latency
+    private static final int MAX_COUNT = Integer.getInteger("feedly.standIn.maxCount", 10000); // page size limit
+    private static final int RATE_LIMIT = Integer.getInteger("feedly.standIn.rateLimit", 0); // requests per second, more get a 429
+    private static final String PREFIX = "/v3/";
+
+    // categories, the tags of EntryGenerator and generated entries
+    static Fixtures synthetic(long seed, int entries, int categories) {
+        Fixtures f = new Fixtures();
+        for (int i = 0; i < categories; i++) {
+            Category c = new Category();
+            c.id = EntryGenerator.categoryId(i);
+            c.label = "Kategorie " + i;
+            f.categories.add(c);
+        }
+        for (String label : EntryGenerator.TAGS) {
+            f.tags.add(newTag("user/1/tag/" + label, label));
+        }
+        f.tags.add(newTag("user/1/tag/global.read", null));
+        f.entries = new EntryGenerator(seed, 20000, categories).entries(entries);
+        return f;
+    }
+
+    // a read or tag change, reported by markers/reads and markers/tags
+    private static class Mark {
+
+        final long time = System.currentTimeMillis();
+        final String entryId;
+        final String tagId; // null for read markers
+        final boolean unread;
+
+        Mark(String entryId, String tagId, boolean unread) {
+            this.entryId = entryId;
+            this.tagId = tagId;
+            this.unread = unread;
+        }
+    }
+
+    private final List<Category> categories;
+    private final List<Tag> tags;
+    private final List<Entry> entries; // newest first, like Feedly's streams
+    private final Map<String, Entry> byId = new HashMap<>();
+    private final List<Mark> marks = new ArrayList<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private long window; // second of the rate limit window
+    private int inWindow;
+    private HttpServer server;
+    private ExecutorService pool;
+
+    FeedlyStandIn(Fixtures fixtures) {
+        categories = new ArrayList<>(fixtures.categories);
+        tags = new ArrayList<>(fixtures.tags);
+        entries = new ArrayList<>(fixtures.entries);
+        entries.sort(Comparator.comparingLong((Entry e) -> e.crawled).reversed());
+        for (Entry e : entries) {
+            byId.put(e.id, e);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        PropertyConfigurator.configure(FeedlyStandIn.class.getClassLoader().getResourceAsStream("logging.properties"));
+        File dir = new File(Fixtures.DIR);
+        Fixtures fixtures = dir.isDirectory()
+                ? Fixtures.load(dir)
+                : synthetic(SEED, ENTRIES, CATEGORIES);
+        FeedlyStandIn standIn = new FeedlyStandIn(fixtures);
+        Runtime.getRuntime().addShutdownHook(new Thread(standIn::stop));
+        standIn.start(PORT);
+    }
+
+    // 0 picks a free port
+    String start(int port) throws IOException {
+        pool = Executors.newFixedThreadPool(8);
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(pool);
+        server.start();
+        String url = "http://localhost:" + server.getAddress().getPort() + PREFIX;
+        log.info(String.format("serving %d entries in %d categories at %s, latency %d+%dms",
+                entries.size(), categories.size(), url, LATENCY, JITTER));
+        return url;
+    }
+
+    void stop() {
+        if (server != null) {
+            server.stop(0);
+            pool.shutdownNow();
+            server = null;
+            log.info("stand-in served " + requests.get() + " requests");
+        }
+    }
+
+    int getRequests() {
+        return requests.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getRawPath();
+        log.debug(method + " " + exchange.getRequestURI());
+        try {
+            delay();
+            if (throttled()) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, 429, null);
+                return;
+            }
+            if (!path.startsWith(PREFIX)) {
+                send(exchange, 404, null);
+                return;
+            }
+            path = path.substring(PREFIX.length());
+            Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+            if (method.equals("GET") && path.equals("categories")) {
+                send(exchange, 200, w -> gson.toJson(categories, w));
+            } else if (method.equals("GET") && path.equals("tags")) {
+                send(exchange, 200, w -> gson.toJson(tags(), w));
+            } else if (method.equals("GET") && path.equals("streams/contents")) {
+                stream(exchange, query);
+            } else if (method.equals("GET") && path.equals("streams/ids")) {
+                streamIds(exchange, query);
+            } else if (method.equals("GET") && path.equals("markers/reads")) {
+                send(exchange, 200, w -> gson.toJson(reads(newerThan(query)), w));
+            } else if (method.equals("GET") && path.equals("markers/tags")) {
+                send(exchange, 200, w -> gson.toJson(tagged(newerThan(query)), w));
+            } else if (method.equals("POST") && path.equals("markers")) {
+                mark(gson.fromJson(body(exchange), Marker.class));
+                send(exchange, 200, null);
+            } else if (method.equals("PUT") && path.startsWith("tags/")) {
+                tag(decode(path.substring(5)), entryIds(gson.fromJson(body(exchange), JsonObject.class)));
+                send(exchange, 200, null);
+            } else if (method.equals("DELETE") && path.startsWith("tags/")) {
+                String[] parts = path.substring(5).split("/", 2);
+                if (parts.length == 2) {
+                    untag(decode(parts[0]), Arrays.asList(decode(parts[1]).split(",")));
+                } else {
+                    deleteTags(Arrays.asList(decode(parts[0]).split(",")));
+                }
+                send(exchange, 200, null);
+            } else {
+                send(exchange, 404, null);
+            }
+        } catch (IOException | RuntimeException ex) {
+            log.warn("stand-in failed on " + method + " " + path, ex);
+            send(exchange, 500, null);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // fixed one second windows
+    private synchronized boolean throttled() {
+        if (RATE_LIMIT <= 0) {
+            return false;
+        }
+        long now = System.currentTimeMillis() / 1000;
+        if (now != window) {
+            window = now;
+            inWindow = 0;
+        }
+        return ++inWindow > RATE_LIMIT;
+    }
+
+    private void delay() {
+        int ms = LATENCY + (JITTER > 0 ? ThreadLocalRandom.current().nextInt(JITTER + 1) : 0);
+        if (ms > 0) {
+            try {
+                Thread.sleep(ms);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // one page of a category, a tag or global.all; the continuation is the offset of the next page
+    private void stream(HttpExchange exchange, Map<String, String> query) throws IOException {
+        String streamId = query.get("streamId");
+        if (streamId == null) {
+            send(exchange, 400, null);
+            return;
+        }
+        List<Entry> page = new ArrayList<>();
+        final String continuation = page(streamId, query, page);
+        send(exchange, 200, w -> {
+            JsonWriter writer = new JsonWriter(w);
+            writer.beginObject();
+            writer.name("id").value(streamId);
+            if (continuation != null) {
+                writer.name("continuation").value(continuation);
+            }
+            writer.name("items").beginArray();
+            for (Entry e : page) {
+                gson.toJson(e, Entry.class, writer);
+            }
+            writer.endArray();
+            writer.endObject();
+            writer.flush();
+        });
+    }
+
+    // the ids of one page
+    private void streamIds(HttpExchange exchange, Map<String, String> query) throws IOException {
+        String streamId = query.get("streamId");
+        if (streamId == null) {
+            send(exchange, 400, null);
+            return;
+        }
+        List<Entry> page = new ArrayList<>();
+        StreamIds ids = new StreamIds();
+        ids.continuation = page(streamId, query, page);
+        ids.ids = page.stream().map(e -> e.id).toArray(String[]::new);
+        send(exchange, 200, w -> gson.toJson(ids, w));
+    }
+
+    // adds the entries of the requested page, returns the continuation or null
+    private String page(String streamId, Map<String, String> query, List<Entry> page) {
+        int count = Math.max(1, Math.min(MAX_COUNT, Integer.parseInt(query.getOrDefault("count", "20"))));
+        int offset = Integer.parseInt(query.getOrDefault("continuation", "0"));
+        long newerThan = newerThan(query);
+        Predicate<Entry> inStream = streamId.endsWith("/category/global.all")
+                ? e -> true
+                : e -> contains(e.categories, streamId) || Utils.containsTagId(e.tags, streamId);
+        synchronized (this) {
+            List<Entry> all = entries.stream()
+                    .filter(e -> e.crawled > newerThan)
+                    .filter(inStream)
+                    .collect(Collectors.toList());
+            page.addAll(all.subList(Math.min(offset, all.size()), Math.min(offset + count, all.size())));
+            return offset + count < all.size() ? Integer.toString(offset + count) : null;
+        }
+    }
+
+    private synchronized List<Tag> tags() {
+        return new ArrayList<>(tags);
+    }
+
+    private synchronized ReadMarkers reads(long newerThan) {
+        Set<String> read = new LinkedHashSet<>();
+        Set<String> unread = new LinkedHashSet<>();
+        for (Mark m : marks) {
+            if (m.time > newerThan && m.tagId == null) {
+                (m.unread ? unread : read).add(m.entryId);
+                (m.unread ? read : unread).remove(m.entryId);
+            }
+        }
+        ReadMarkers markers = new ReadMarkers();
+        markers.entries = read.toArray(new String[read.size()]);
+        markers.unread = unread.toArray(new String[unread.size()]);
+        markers.updated = System.currentTimeMillis();
+        return markers;
+    }
+
+    private synchronized TagMarkers tagged(long newerThan) {
+        Map<String, Set<String>> byTag = new HashMap<>();
+        for (Mark m : marks) {
+            if (m.time > newerThan && m.tagId != null) {
+                Entry e = byId.get(m.entryId);
+                if (e != null && Utils.containsTagId(e.tags, m.tagId)) { // still tagged
+                    byTag.computeIfAbsent(m.tagId, k -> new LinkedHashSet<>()).add(m.entryId);
+                }
+            }
+        }
+        TagMarkers markers = new TagMarkers();
+        markers.taggedEntries = new HashMap<>();
+        for (Map.Entry<String, Set<String>> e : byTag.entrySet()) {
+            markers.taggedEntries.put(e.getKey(), e.getValue().toArray(new String[e.getValue().size()]));
+        }
+        return markers;
+    }
+
+    private synchronized void mark(Marker marker) {
+        boolean unread = "keepUnread".equals(marker.action);
+        for (String id : Utils.toList(marker.entryIds)) {
+            Entry e = byId.get(id);
+            if (e != null) {
+                e.unread = unread;
+                marks.add(new Mark(id, null, unread));
+            }
+        }
+    }
+
+    // PUT creates unknown tags, as Feedly does
+    private synchronized void tag(String tagId, List<String> entryIds) {
+        Tag tag = null;
+        for (Tag t : tags) {
+            if (t.id.equals(tagId)) {
+                tag = t;
+            }
+        }
+        if (tag == null) {
+            tag = newTag(tagId, tagId.substring(tagId.lastIndexOf('/') + 1));
+            tags.add(tag);
+        }
+        for (String id : entryIds) {
+            Entry e = byId.get(id);
+            if (e != null && !Utils.containsTagId(e.tags, tagId)) {
+                List<Tag> entryTags = new ArrayList<>(Utils.toList(e.tags));
+                entryTags.add(tag);
+                e.tags = entryTags.toArray(new Tag[entryTags.size()]); // never changed in place, streams may be writing it
+                marks.add(new Mark(id, tagId, false));
+            }
+        }
+    }
+
+    // Removals record no Mark: Feedly's markers/tags only lists tagged entries, so a run
+    // only sees them through the periodic check of the tag streams (App.syncTags).
+    private synchronized void untag(String tagId, List<String> entryIds) {
+        for (String id : entryIds) {
+            Entry e = byId.get(id);
+            if (e != null && e.tags != null) {
+                e.tags = Arrays.stream(e.tags).filter(t -> !t.id.equals(tagId)).toArray(Tag[]::new);
+            }
+        }
+    }
+
+    // no Mark either, see untag
+    private synchronized void deleteTags(List<String> tagIds) {
+        tags.removeIf(t -> tagIds.contains(t.id));
+        for (Entry e : entries) {
+            if (e.tags != null) {
+                e.tags = Arrays.stream(e.tags).filter(t -> !tagIds.contains(t.id)).toArray(Tag[]::new);
+            }
+        }
+    }
+
+    private interface Body {
+
+        void write(Writer w) throws IOException;
+    }
+
+    // gzip encoded if asked for, like the real API
+    private static void send(HttpExchange exchange, int status, Body body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        boolean gzip = accept != null && accept.contains("gzip");
+        exchange.getResponseHeaders().set("Content-Type", "application/json;charset=UTF-8");
+        if (gzip) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(status, 0);
+        OutputStream out = gzip ? new GZIPOutputStream(exchange.getResponseBody(), 8192) : exchange.getResponseBody();
+        try (Writer w = new OutputStreamWriter(out, Charsets.UTF_8)) {
+            body.write(w);
+        }
+    }
+
+    private static String body(HttpExchange exchange) throws IOException {
+        try (InputStreamReader in = new InputStreamReader(exchange.getRequestBody(), Charsets.UTF_8)) {
+            StringBuilder sb = new StringBuilder();
+            char[] buf = new char[4096];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                sb.append(buf, 0, n);
+            }
+            return sb.toString();
+        }
+    }
+
+    // {"entryId": …} or {"entryIds": […]}
+    private static List<String> entryIds(JsonObject o) {
+        List<String> ids = new ArrayList<>();
+        if (o.has("entryId")) {
+            ids.add(o.get("entryId").getAsString());
+        }
+        if (o.has("entryIds")) {
+            o.getAsJsonArray("entryIds").forEach(id -> ids.add(id.getAsString()));
+        }
+        return ids;
+    }
+
+    private static Map<String, String> query(String raw) throws IOException {
+        Map<String, String> query = new HashMap<>();
+        if (raw != null) {
+            for (String param : raw.split("&")) {
+                String[] kv = param.split("=", 2);
+                query.put(decode(kv[0]), kv.length > 1 ? decode(kv[1]) : "");
+            }
+        }
+        return query;
+    }
+
+    private static long newerThan(Map<String, String> query) {
+        return Long.parseLong(query.getOrDefault("newerThan", "0"));
+    }
+
+    private static String decode(String s) throws IOException {
+        return URLDecoder.decode(s, Charsets.UTF_8.name());
+    }
+
+    private static boolean contains(Category[] categories, String id) {
+        for (Category c : Utils.toList(categories)) {
+            if (id.equals(c.id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Tag newTag(String id, String label) {
+        Tag t = new Tag();
+        t.id = id;
+        t.label = label;
+        return t;
+    }
+}
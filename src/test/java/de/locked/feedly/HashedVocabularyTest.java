@@ -0,0 +1,134 @@
+package de.locked.feedly;
+
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+// A hashed model must count what the exact model counts, summed per bucket. Where a bucket
+// holds a single word, the probability must be that of the exact model. Nearly every doc
+// has a colliding word, so only the tagging decisions are compared: with about 10% of the
+// words in a shared bucket they must agree for 95% of the docs and tags. The prefilter may only drop the first
+// minDoc - 1 docs of a word.
+public class HashedVocabularyTest {
+
+    private static final List<String> TAGS = Arrays.asList(EntryGenerator.TAGS);
+    private static final int BUCKETS = 1 << 18;
+    private static final BayesCfg CFG = new BayesCfg(3, 0.5, 0.1);
+
+    @Test
+    public void bucketsSumTheExactCounts() {
+        Vocabulary words = new Vocabulary();
+        MultiBayes exact = train(words);
+        HashedVocabulary buckets = new HashedVocabulary(BUCKETS, 0);
+        MultiBayes hashed = train(buckets);
+        int[] bucket = buckets(words, buckets);
+        int[] sharing = sharing(bucket);
+
+        Counts[][] tables = tables(exact, hashed);
+        for (Counts[] table : tables) {
+            int[] terms = new int[BUCKETS];
+            int[] docs = new int[BUCKETS];
+            for (int w = 0; w < words.size(); w++) {
+                terms[bucket[w]] += table[0].terms[w];
+                docs[bucket[w]] += table[0].docs[w];
+            }
+            assertEquals(table[0].n, table[1].n, 0);
+            for (int b = 0; b < BUCKETS; b++) {
+                assertEquals(terms[b], table[1].terms[b]);
+                assertTrue(docs[b] >= table[1].docs[b]); // colliding words in the same doc
+            }
+            for (int w = 0; w < words.size(); w++) {
+                if (sharing[bucket[w]] == 1) {
+                    assertEquals(table[0].docs[w], table[1].docs[bucket[w]]);
+                }
+            }
+        }
+
+        exact.reduce(CFG);
+        hashed.reduce(CFG);
+        for (int t = 0; t < TAGS.size(); t++) {
+            for (int w = 0; w < words.size(); w++) {
+                if (sharing[bucket[w]] == 1) {
+                    assertEquals(exact.probability(t, w), hashed.probability(t, bucket[w]), 0);
+                }
+            }
+        }
+        Corpus a = Corpus.load(new EntryGenerator(12).entries(500).stream(), words);
+        Corpus b = Corpus.load(new EntryGenerator(12).entries(500).stream(), buckets);
+        int decisions = 0, agree = 0; // at the threshold of App.score
+        for (int i = 0; i < a.size(); i++) {
+            double[] p = exact.docIsA(a.getDocs().get(i));
+            double[] q = hashed.docIsA(b.getDocs().get(i));
+            for (int t = 0; t < TAGS.size(); t++) {
+                decisions++;
+                if (p[t] >= 0.6 == q[t] >= 0.6) {
+                    agree++;
+                }
+            }
+        }
+        assertTrue(agree + " of " + decisions, agree >= 0.95 * decisions);
+    }
+
+    @Test
+    public void prefilterDropsOnlyTheFirstDocs() {
+        int minDoc = 3;
+        Vocabulary words = new Vocabulary();
+        MultiBayes exact = train(words);
+        HashedVocabulary buckets = new HashedVocabulary(BUCKETS, minDoc);
+        MultiBayes hashed = train(buckets);
+        int[] bucket = buckets(words, buckets);
+        int[] sharing = sharing(bucket);
+
+        int dropped = 0;
+        for (Counts[] table : tables(exact, hashed)) {
+            for (int w = 0; w < words.size(); w++) {
+                if (sharing[bucket[w]] == 1) {
+                    int docs = table[0].docs[w];
+                    int kept = table[1].docs[bucket[w]];
+                    assertTrue(kept <= docs && kept >= docs - (minDoc - 1));
+                    assertTrue(table[1].terms[bucket[w]] <= table[0].terms[w]);
+                    dropped += docs - kept;
+                }
+            }
+        }
+        assertTrue(dropped > 0);
+    }
+
+    private static MultiBayes train(Vocabulary vocabulary) {
+        MultiBayes model = new MultiBayes(TAGS, vocabulary);
+        model.train(Corpus.load(new EntryGenerator(12).entries(2000).stream(), vocabulary));
+        return model;
+    }
+
+    // the bucket of every exact word
+    private static int[] buckets(Vocabulary words, HashedVocabulary buckets) {
+        int[] bucket = new int[words.size()];
+        for (int w = 0; w < bucket.length; w++) {
+            bucket[w] = buckets.id(words.word(w));
+        }
+        return bucket;
+    }
+
+    // the number of exact words in each bucket
+    private static int[] sharing(int[] bucket) {
+        int[] sharing = new int[BUCKETS];
+        for (int b : bucket) {
+            sharing[b]++;
+        }
+        return sharing;
+    }
+
+    // pairs of the exact and the hashed table: read, then tagged and tagged read per tag
+    private static Counts[][] tables(MultiBayes exact, MultiBayes hashed) {
+        Counts[][] tables = new Counts[1 + 2 * TAGS.size()][];
+        tables[0] = new Counts[]{exact.getRead(), hashed.getRead()};
+        for (int t = 0; t < TAGS.size(); t++) {
+            tables[1 + 2 * t] = new Counts[]{exact.getTagged(t), hashed.getTagged(t)};
+            tables[2 + 2 * t] = new Counts[]{exact.getTaggedRead(t), hashed.getTaggedRead(t)};
+        }
+        return tables;
+    }
+}
@@ -0,0 +1,160 @@
+package de.locked.feedly;
+
+import de.locked.feedly.feedly.Entry;
+import de.locked.feedly.feedly.Tag;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// A stored model brought up to date by deltas must have the tables of a model that is
+// trained from scratch on the current corpus.
+public class ModelStoreTest {
+
+    private static final List<String> TAGS = Arrays.asList(EntryGenerator.TAGS);
+
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    @Test
+    public void deltasOfTheWholeCorpusEqualAFullTrain() throws Exception {
+        File file = new File(dir.getRoot(), "model.db");
+        List<Entry> entries = new EntryGenerator(5).entries(1200);
+        train(file, entries);
+
+        Set<String> changed = change(entries);
+        entries.subList(0, 50).clear(); // dropped from the store
+        ModelStore models = new ModelStore(file, false, TAGS.size());
+        MultiBayes model = models.load(TAGS);
+        Corpus corpus = Corpus.load(entries.stream(), models.getVocabulary());
+        models.update(model, corpus, null);
+        assertTrue(changed.size() > 100);
+        assertSameTables(full(corpus), model, models.getVocabulary().size());
+        models.close();
+    }
+
+    @Test
+    public void deltasOfTheChangedDocsEqualAFullTrain() throws Exception {
+        File file = new File(dir.getRoot(), "model.db");
+        List<Entry> entries = new EntryGenerator(6).entries(1200);
+        train(file, entries);
+
+        Set<String> changed = change(entries);
+        ModelStore models = new ModelStore(file, false, TAGS.size());
+        MultiBayes model = models.load(TAGS);
+        Corpus corpus = Corpus.load(entries.stream(), models.getVocabulary());
+        List<Doc> docs = new ArrayList<>();
+        for (Doc d : corpus.getDocs()) {
+            if (changed.contains(d.id)) {
+                docs.add(d);
+            }
+        }
+        models.update(model, docs, null);
+        models.save(model);
+        models.close();
+
+        // and once more from disk
+        models = new ModelStore(file, false, TAGS.size());
+        model = models.load(TAGS);
+        corpus = Corpus.load(entries.stream(), models.getVocabulary());
+        assertSameTables(full(corpus), model, models.getVocabulary().size());
+        models.close();
+    }
+
+    @Test
+    public void packKeepsTheWordCounts() {
+        int[] tokens = {7, 3, 300, 7, 0, 3, 7, 1 << 20, 129};
+        int[] sorted = tokens.clone();
+        Arrays.sort(sorted);
+        assertArrayEquals(sorted, ModelStore.unpack(ModelStore.pack(tokens)));
+        assertArrayEquals(new int[0], ModelStore.unpack(ModelStore.pack(new int[0])));
+    }
+
+    private static void train(File file, List<Entry> entries) {
+        ModelStore models = new ModelStore(file, false, TAGS.size());
+        MultiBayes model = models.load(TAGS);
+        models.update(model, Corpus.load(entries.stream(), models.getVocabulary()), null);
+        models.save(model);
+        models.close();
+    }
+
+    private static MultiBayes full(Corpus corpus) {
+        MultiBayes full = new MultiBayes(TAGS, corpus.getVocabulary());
+        full.train(corpus);
+        return full;
+    }
+
+    // adds entries, retags, untags, marks read and edits some; returns the ids it touched
+    private static Set<String> change(List<Entry> entries) {
+        Set<String> ids = new TreeSet<>();
+        for (int i = 0; i < entries.size(); i++) {
+            Entry e = entries.get(i);
+            boolean tagged = !Utils.untagged(e.tags);
+            if (i % 7 == 0 && tagged) { // retag
+                e.tags = tags(e, "user/1/tag/" + TAGS.get(i % TAGS.size()), TAGS.get(i % TAGS.size()));
+            } else if (i % 11 == 0 && tagged) { // untag
+                e.tags = tags(e, null, null);
+            } else if (i % 5 == 0 && e.unread) { // read
+                e.unread = false;
+            } else if (i % 13 == 0) { // new content
+                e.updated++;
+                e.title = "Neuer Titel mit ganz neuen Wörtern " + i;
+            } else {
+                continue;
+            }
+            ids.add(e.id);
+        }
+        for (Entry e : new EntryGenerator(99).entries(100)) {
+            e.id += "-new";
+            entries.add(e);
+            ids.add(e.id);
+        }
+        return ids;
+    }
+
+    // the system tags of the entry plus the given one
+    private static Tag[] tags(Entry e, String id, String label) {
+        List<Tag> tags = new ArrayList<>();
+        for (Tag t : Utils.toList(e.tags)) {
+            if (t.label == null) {
+                tags.add(t);
+            }
+        }
+        if (id != null) {
+            Tag t = new Tag();
+            t.id = id;
+            t.label = label;
+            tags.add(t);
+        }
+        return tags.toArray(new Tag[tags.size()]);
+    }
+
+    private static void assertSameTables(MultiBayes expected, MultiBayes actual, int words) {
+        assertSame("read", expected.getRead(), actual.getRead(), words);
+        for (int t = 0; t < TAGS.size(); t++) {
+            assertSame(TAGS.get(t), expected.getTagged(t), actual.getTagged(t), words);
+            assertSame(TAGS.get(t) + " read", expected.getTaggedRead(t), actual.getTaggedRead(t), words);
+        }
+    }
+
+    // tables may have different capacities, missing words count 0
+    private static void assertSame(String table, Counts expected, Counts actual, int words) {
+        assertEquals(table, expected.n, actual.n, 0);
+        for (int w = 0; w < words; w++) {
+            assertEquals(table + " terms " + w, at(expected.terms, w), at(actual.terms, w));
+            assertEquals(table + " docs " + w, at(expected.docs, w), at(actual.docs, w));
+        }
+    }
+
+    private static int at(int[] counts, int w) {
+        return w < counts.length ? counts[w] : 0;
+    }
+}
@@ -0,0 +1,63 @@
+package de.locked.feedly;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+// Counting with a pool, in partial tables per chunk or in one task per table, must give
+// the tables of a sequential count, for the exact and for the hashed vocabulary.
+public class MultiBayesParallelTest {
+
+    private static final List<String> TAGS = Arrays.asList(EntryGenerator.TAGS);
+
+    @Test
+    public void exactVocabulary() {
+        compare(new Vocabulary());
+    }
+
+    @Test
+    public void hashedVocabulary() {
+        compare(new HashedVocabulary(1 << 14, 0));
+    }
+
+    @Test
+    public void hashedVocabularyWithPrefilter() {
+        compare(new HashedVocabulary(1 << 14, 2));
+    }
+
+    private static void compare(Vocabulary vocabulary) {
+        Corpus corpus = Corpus.load(new EntryGenerator(11).entries(3000).stream(), vocabulary);
+        MultiBayes sequential = new MultiBayes(TAGS, vocabulary);
+        MultiBayes parallel = new MultiBayes(TAGS, vocabulary);
+        List<MultiBayes.Delta> deltas = new ArrayList<>();
+        for (Doc d : corpus.getDocs()) {
+            deltas.add(sequential.delta(d.tokens, !d.unread, sequential.tagsOf(d), 1));
+        }
+        // and take a few back again
+        for (Doc d : corpus.getDocs().subList(0, 500)) {
+            deltas.add(sequential.delta(d.tokens, !d.unread, sequential.tagsOf(d), -1));
+        }
+        sequential.apply(deltas, null);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            parallel.apply(deltas, pool);
+        } finally {
+            pool.shutdown();
+        }
+        assertSame("read", sequential.getRead(), parallel.getRead());
+        for (int t = 0; t < TAGS.size(); t++) {
+            assertSame(TAGS.get(t), sequential.getTagged(t), parallel.getTagged(t));
+            assertSame(TAGS.get(t) + " read", sequential.getTaggedRead(t), parallel.getTaggedRead(t));
+        }
+    }
+
+    private static void assertSame(String table, Counts expected, Counts actual) {
+        assertEquals(table, expected.n, actual.n, 0);
+        assertArrayEquals(table, expected.terms, actual.terms);
+        assertArrayEquals(table, expected.docs, actual.docs);
+    }
+}
@@ -0,0 +1,62 @@
+package de.locked.feedly;
+
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+// MultiBayes must count and score exactly like one Bayes per tag, trained the way
+// App used to: docs tagged T are the positive class, the other read docs the negative one.
+public class MultiBayesTest {
+
+    private static final BayesCfg[] CONFIGS = {new BayesCfg(1, 0.94, 0.03), new BayesCfg(3, 0.5, 0.1)};
+
+    @Test
+    public void sameCountsAndScoresAsOneBayesPerTag() {
+        for (BayesCfg cfg : CONFIGS) {
+            Corpus corpus = Corpus.load(new EntryGenerator(7).entries(1500).stream());
+            List<String> tags = Arrays.asList(EntryGenerator.TAGS);
+            MultiBayes multi = new MultiBayes(tags, corpus.getVocabulary());
+            multi.train(corpus);
+            Bayes[] single = new Bayes[tags.size()];
+            for (int t = 0; t < tags.size(); t++) {
+                single[t] = train(tags.get(t), corpus);
+                assertCounts(single[t], multi, t, corpus.getVocabulary().size());
+                single[t].reduce(cfg);
+            }
+            multi.reduce(cfg);
+            for (Doc doc : corpus.getDocs()) {
+                double[] p = multi.docIsA(doc);
+                int[] distinct = multi.distinct(doc.tokens);
+                for (int t = 0; t < tags.size(); t++) {
+                    double expected = single[t].docIsA(doc.tokens);
+                    assertEquals(doc.id + " " + tags.get(t), expected, p[t], 0);
+                    assertEquals(doc.id + " " + tags.get(t), expected, multi.docIsA(t, distinct), 0);
+                }
+            }
+        }
+    }
+
+    private static Bayes train(String tag, Corpus corpus) {
+        Bayes bayes = new Bayes(tag, corpus.getVocabulary());
+        for (Doc doc : corpus.getDocs()) {
+            if (doc.hasTag(tag)) {
+                bayes.add(tag, doc.tokens);
+            } else if (!doc.unread) {
+                bayes.add("", doc.tokens);
+            }
+        }
+        return bayes;
+    }
+
+    private static void assertCounts(Bayes single, MultiBayes multi, int t, int words) {
+        Counts a = multi.getTagged(t), ra = multi.getTaggedRead(t), read = multi.getRead();
+        assertEquals(single.getNa(), a.n, 0);
+        assertEquals(single.getNb(), read.n - ra.n, 0);
+        for (int w = 0; w < words; w++) {
+            int[] expected = {a.terms[w], read.terms[w] - ra.terms[w], a.docs[w], read.docs[w] - ra.docs[w]};
+            assertArrayEquals(single.getName() + " word " + w, expected, single.counts(w));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package de.locked.feedly;
+
+import de.locked.feedly.feedly.Entry;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// The snapshot of a reduced model must score entries like MultiBayes.docIsA, also entries
+// with words that the model never saw or that no tag kept and so are not in the snapshot.
+public class ScoringSnapshotTest {
+
+    private static final List<String> TAGS = Arrays.asList(EntryGenerator.TAGS);
+
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    @Test
+    public void exactVocabulary() throws Exception {
+        compare(new Vocabulary(), new BayesCfg(1, 0.94, 0.03));
+        compare(new Vocabulary(), new BayesCfg(3, 0.5, 0.1));
+    }
+
+    @Test
+    public void hashedVocabulary() throws Exception {
+        compare(new HashedVocabulary(1 << 12, 0), new BayesCfg(1, 0.94, 0.03));
+        compare(new HashedVocabulary(1 << 12, 0), new BayesCfg(3, 0.5, 0.1));
+    }
+
+    private void compare(Vocabulary vocabulary, BayesCfg cfg) throws Exception {
+        Corpus corpus = Corpus.load(new EntryGenerator(8).entries(1500).stream(), vocabulary);
+        MultiBayes model = new MultiBayes(TAGS, vocabulary);
+        model.train(corpus);
+        model.reduce(cfg);
+        File file = dir.newFile();
+        ScoringSnapshot.write(model, file);
+        ScoringSnapshot snapshot = ScoringSnapshot.open(file);
+        ScoringSnapshot.Scorer scorer = snapshot.scorer();
+        assertEquals(TAGS.size(), snapshot.size());
+
+        // some of the trained entries and entries the model has not seen
+        List<Entry> entries = new ArrayList<>(new EntryGenerator(8).entries(1500).subList(0, 300));
+        entries.addAll(new EntryGenerator(9).entries(300));
+        int missing = 0;
+        for (Entry e : entries) {
+            int known = vocabulary.size();
+            Doc doc = corpus.add(e);
+            for (int w : doc.tokens) {
+                if (w >= known || snapshot.find(vocabulary.word(w)) < 0) {
+                    missing++;
+                    break;
+                }
+            }
+            double[] expected = model.docIsA(doc);
+            double[] actual = scorer.docIsA(e);
+            for (int t = 0; t < TAGS.size(); t++) {
+                assertEquals(e.id + " " + snapshot.getName(t), expected[t], actual[t], 0);
+            }
+        }
+        if (!(vocabulary instanceof HashedVocabulary)) { // a hashed snapshot has all buckets
+            assertTrue(missing > 0);
+        }
+    }
+}
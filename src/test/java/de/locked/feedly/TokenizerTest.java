@@ -0,0 +1,36 @@
+package de.locked.feedly;
+
+import com.google.gson.Gson;
+import de.locked.feedly.feedly.Entry;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+// The streaming tokenizer must hand out the tokens of the jsoup path (Utils.getAllContent)
+// for the markup collected in tokenizer-corpus.json, the check of the verify option.
+public class TokenizerTest {
+
+    private static List<Entry> corpus() throws Exception {
+        try (Reader in = new InputStreamReader(TokenizerTest.class.getResourceAsStream("/tokenizer-corpus.json"), UTF_8)) {
+            return Arrays.asList(new Gson().fromJson(in, Entry[].class));
+        }
+    }
+
+    @Test
+    public void tokensMatchJsoup() throws Exception {
+        List<Entry> entries = corpus();
+        assertTrue(entries.size() > 10);
+        Tokenizer tokenizer = new Tokenizer();
+        for (Entry e : entries) {
+            List<String> actual = new ArrayList<>();
+            tokenizer.tokenize(e, t -> actual.add(t.toString()));
+            assertEquals(e.title, Utils.getAllContent(e), actual);
+        }
+    }
+}